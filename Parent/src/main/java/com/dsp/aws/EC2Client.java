@@ -22,6 +22,12 @@ public class EC2Client {
                         .build();
     }
 
+    //wraps a given sdk client, for tests that override the calls they use
+    protected EC2Client(Ec2Client ec2client) {
+        generalUtils = new GeneralUtils();
+        this.ec2client = ec2client;
+    }
+
     // return a list of all ec2 instances created.
     // keyName: private key pair of AWS EC2. arn: (amazon resource name)-predefined IAM Role.
     public List<Instance> createEC2Instances(String amiId, String keyName, int minCount, int maxCount, String userData, String arn, InstanceType instanceType) {
@@ -10,6 +10,7 @@ import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.services.s3.paginators.ListObjectsV2Iterable;
 
 import java.io.File;
+import java.io.InputStream;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
@@ -29,6 +30,12 @@ public class S3client {
             .build();
     }
 
+    //wraps a given sdk client, for tests that override the calls they use
+    protected S3client(S3Client s3) {
+        generalUtils = new GeneralUtils();
+        this.s3 = s3;
+    }
+
     // create an s3 bucket.
     public boolean createBucket(String bucketName) {
         CreateBucketRequest bucketRequest = CreateBucketRequest
@@ -95,6 +102,22 @@ public class S3client {
         return true;
     }
 
+    // add a key/value pair to an S3 bucket from the given bytes.
+    public boolean putObjectBytes(String bucketName, String bucketKey, byte[] value) {
+        PutObjectRequest putRequest = PutObjectRequest
+                .builder()
+                .acl(ObjectCannedACL.BUCKET_OWNER_FULL_CONTROL)
+                .bucket(bucketName).key(bucketKey)
+                .build();
+        try {
+            s3.putObject(putRequest, RequestBody.fromBytes(value));
+        } catch (Exception e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            return false;
+        }
+        return true;
+    }
+
     public boolean deleteObject(String bucketName, String bucketKey){
         DeleteObjectRequest deleteObjectRequest = DeleteObjectRequest
                                                 .builder()
@@ -138,6 +161,110 @@ public class S3client {
         return new String(result.asByteArray());
     }
 
+    // open the value of bucketKey in the S3 bucket as a stream, to read it without downloading it first. null if it can't be read
+    public InputStream getObjectStream(String bucket, String bucketKey) {
+        GetObjectRequest getRequest = GetObjectRequest.builder()
+                .bucket(bucket).key(bucketKey).build();
+        try {
+            return s3.getObject(getRequest);
+        } catch (Exception e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            return null;
+        }
+    }
+
+    // read the value of bucketKey in the S3 bucket as raw bytes, null if it can't be read
+    public byte[] getObjectBytes(String bucket, String bucketKey) {
+        GetObjectRequest getRequest = GetObjectRequest.builder()
+                .bucket(bucket).key(bucketKey).build();
+        try {
+            return s3.getObject(getRequest, ResponseTransformer.toBytes()).asByteArray();
+        } catch (Exception e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            return null;
+        }
+    }
+
+    // read length bytes of the value of bucketKey from offset (a ranged read), null if it can't be read
+    public byte[] getObjectRange(String bucket, String bucketKey, long offset, long length) {
+        GetObjectRequest getRequest = GetObjectRequest.builder()
+                .bucket(bucket).key(bucketKey)
+                .range("bytes=" + offset + "-" + (offset + length - 1))
+                .build();
+        try {
+            return s3.getObject(getRequest, ResponseTransformer.toBytes()).asByteArray();
+        } catch (Exception e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            return null;
+        }
+    }
+
+    // start a multipart upload of bucketKey, returns its upload id or null on error
+    public String createMultipartUpload(String bucketName, String bucketKey) {
+        CreateMultipartUploadRequest request = CreateMultipartUploadRequest
+                .builder()
+                .acl(ObjectCannedACL.BUCKET_OWNER_FULL_CONTROL)
+                .bucket(bucketName).key(bucketKey)
+                .build();
+        try {
+            return s3.createMultipartUpload(request).uploadId();
+        } catch (Exception e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            return null;
+        }
+    }
+
+    // upload a part (1 to 10000) of a multipart upload, all parts but the last must be at least 5MB.
+    // returns the completed part or null on error
+    public CompletedPart uploadPart(String bucketName, String bucketKey, String uploadId, int partNumber, byte[] value) {
+        UploadPartRequest request = UploadPartRequest
+                .builder()
+                .bucket(bucketName).key(bucketKey)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .build();
+        try {
+            String eTag = s3.uploadPart(request, RequestBody.fromBytes(value)).eTag();
+            return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+        } catch (Exception e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            return null;
+        }
+    }
+
+    // complete a multipart upload from its uploaded parts, in part number order
+    public boolean completeMultipartUpload(String bucketName, String bucketKey, String uploadId, List<CompletedPart> parts) {
+        CompleteMultipartUploadRequest request = CompleteMultipartUploadRequest
+                .builder()
+                .bucket(bucketName).key(bucketKey)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                .build();
+        try {
+            s3.completeMultipartUpload(request);
+        } catch (Exception e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            return false;
+        }
+        return true;
+    }
+
+    // abort a multipart upload, so its parts aren't kept (and billed)
+    public boolean abortMultipartUpload(String bucketName, String bucketKey, String uploadId) {
+        AbortMultipartUploadRequest request = AbortMultipartUploadRequest
+                .builder()
+                .bucket(bucketName).key(bucketKey)
+                .uploadId(uploadId)
+                .build();
+        try {
+            s3.abortMultipartUpload(request);
+        } catch (Exception e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            return false;
+        }
+        return true;
+    }
+
     public List<String> getAllObjectsKeys(String bucket, String prefix){
         ListObjectsV2Request request = ListObjectsV2Request.builder().bucket(bucket).prefix(prefix).build();
         ListObjectsV2Iterable response = s3.listObjectsV2Paginator(request);
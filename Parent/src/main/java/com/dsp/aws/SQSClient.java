@@ -5,6 +5,7 @@ import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -24,6 +25,12 @@ public class SQSClient {
             .build();
     }
 
+    //wraps a given sdk client, for tests that override the calls they use
+    protected SQSClient(SqsClient sqs) {
+        generalUtils = new GeneralUtils();
+        this.sqs = sqs;
+    }
+
     public boolean createQueue(String queueName, String visibility) {
 //        Map<QueueAttributeName, String> queueAttributes = new HashMap<>();
 //        queueAttributes.put(QueueAttributeName.FIFO_QUEUE, Boolean.TRUE.toString());
@@ -66,12 +73,29 @@ public class SQSClient {
         return sqs.receiveMessage(receiveRequest).messages();
     }
 
+    // long polling receive: waits up to waitTimeSeconds (max 20) for messages instead of returning an empty response
+    public List<Message> getMessages(String queueUrl, Integer maxNumberOfMessages, Integer waitTimeSeconds) {
+        ReceiveMessageRequest receiveRequest = ReceiveMessageRequest
+                                            .builder()
+                                            .queueUrl(queueUrl)
+                                            .messageAttributeNames("All")
+                                            .maxNumberOfMessages(maxNumberOfMessages)
+                                            .waitTimeSeconds(waitTimeSeconds)
+                                            .build();
+
+        return sqs.receiveMessage(receiveRequest).messages();
+    }
+
     public boolean sendMessage(String queueUrl, String messageBody, HashMap<String, MessageAttributeValue> attributes) {
+        return sendMessage(queueUrl, messageBody, attributes, 5);
+    }
+
+    public boolean sendMessage(String queueUrl, String messageBody, Map<String, MessageAttributeValue> attributes, int delaySeconds) {
         SendMessageRequest send_msg_request = SendMessageRequest.builder()
                 .queueUrl(queueUrl)
                 .messageBody(messageBody)
                 .messageAttributes(attributes)
-                .delaySeconds(5)
+                .delaySeconds(delaySeconds)
                 .build();
         try {
             sqs.sendMessage(send_msg_request);
@@ -82,6 +106,37 @@ public class SQSClient {
         return true;
     }
 
+    // send up to 10 messages (256KB in total) in a single request, without delay.
+    // returns the indexes of the messages that couldn't be sent
+    public List<Integer> sendMessageBatch(String queueUrl, List<String> messageBodies, List<Map<String, MessageAttributeValue>> attributes) {
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < messageBodies.size(); i++) {
+            entries.add(SendMessageBatchRequestEntry.builder()
+                        .id(Integer.toString(i))
+                        .messageBody(messageBodies.get(i))
+                        .messageAttributes(attributes.get(i))
+                        .build());
+        }
+        SendMessageBatchRequest sendMessageBatchRequest = SendMessageBatchRequest.builder()
+                                                        .queueUrl(queueUrl)
+                                                        .entries(entries)
+                                                        .build();
+        List<Integer> failed = new ArrayList<>();
+        try {
+            SendMessageBatchResponse response = sqs.sendMessageBatch(sendMessageBatchRequest);
+            for (BatchResultErrorEntry error : response.failed()) {
+                generalUtils.logPrint("Error at sending message in batch: " + error.code() + " " + error.message());
+                failed.add(Integer.parseInt(error.id()));
+            }
+        } catch (Exception e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            for (int i = 0; i < messageBodies.size(); i++) {
+                failed.add(i);
+            }
+        }
+        return failed;
+    }
+
     public boolean deleteMessages(List<Message> messages, String queueUrl) {
         for (Message message : messages) {
             DeleteMessageRequest deleteMessageRequest = DeleteMessageRequest.builder()
@@ -98,7 +153,33 @@ public class SQSClient {
         return true;
     }
 
-    @SuppressWarnings("unused")
+    // delete up to 10 messages in a single request, returns the messages that couldn't be deleted
+    public List<Message> deleteMessagesBatch(List<Message> messages, String queueUrl) {
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            entries.add(DeleteMessageBatchRequestEntry.builder()
+                        .id(Integer.toString(i))
+                        .receiptHandle(messages.get(i).receiptHandle())
+                        .build());
+        }
+        DeleteMessageBatchRequest deleteMessageBatchRequest = DeleteMessageBatchRequest.builder()
+                                                            .queueUrl(queueUrl)
+                                                            .entries(entries)
+                                                            .build();
+        List<Message> failed = new ArrayList<>();
+        try {
+            DeleteMessageBatchResponse response = sqs.deleteMessageBatch(deleteMessageBatchRequest);
+            for (BatchResultErrorEntry error : response.failed()) {
+                generalUtils.logPrint("Error at deleting message in batch: " + error.code() + " " + error.message());
+                failed.add(messages.get(Integer.parseInt(error.id())));
+            }
+        } catch (Exception e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            return new ArrayList<>(messages);
+        }
+        return failed;
+    }
+
     public boolean changeVisibility(String queueUrl, int visibilityTimeout, String s) {
         ChangeMessageVisibilityRequest changeMessageVisibilityRequest = ChangeMessageVisibilityRequest.builder()
                                                                         .queueUrl(queueUrl)
@@ -114,16 +195,46 @@ public class SQSClient {
         return true;
     }
 
-    @SuppressWarnings("unused")
+    // change the visibility timeout of up to 10 messages in a single request, returns the receipt handles that failed
+    public List<String> changeVisibilityBatch(String queueUrl, int visibilityTimeout, List<String> receiptHandles) {
+        List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < receiptHandles.size(); i++) {
+            entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                        .id(Integer.toString(i))
+                        .receiptHandle(receiptHandles.get(i))
+                        .visibilityTimeout(visibilityTimeout)
+                        .build());
+        }
+        ChangeMessageVisibilityBatchRequest changeMessageVisibilityBatchRequest = ChangeMessageVisibilityBatchRequest.builder()
+                                                                                .queueUrl(queueUrl)
+                                                                                .entries(entries)
+                                                                                .build();
+        List<String> failed = new ArrayList<>();
+        try {
+            ChangeMessageVisibilityBatchResponse response = sqs.changeMessageVisibilityBatch(changeMessageVisibilityBatchRequest);
+            for (BatchResultErrorEntry error : response.failed()) {
+                generalUtils.logPrint("Error at changing message visibility in batch: " + error.code() + " " + error.message());
+                failed.add(receiptHandles.get(Integer.parseInt(error.id())));
+            }
+        } catch (Exception e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            return new ArrayList<>(receiptHandles);
+        }
+        return failed;
+    }
+
+    // approximate number of messages in the queue, waiting or in flight (received and not deleted yet). -1 on error
     public int getPendingMessagesSize(String queueUrl) {
         GetQueueAttributesRequest attributesRequest = GetQueueAttributesRequest
                                                     .builder()
                                                     .queueUrl(queueUrl)
-                                                    .attributeNames(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES)
+                                                    .attributeNames(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES,
+                                                            QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE)
                                                     .build();
         try {
-            GetQueueAttributesResponse getQueueAttributesResponse = sqs.getQueueAttributes(attributesRequest);
-            return Integer.parseInt(getQueueAttributesResponse.attributes().get(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES));
+            Map<QueueAttributeName, String> attributes = sqs.getQueueAttributes(attributesRequest).attributes();
+            return Integer.parseInt(attributes.get(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES))
+                    + Integer.parseInt(attributes.get(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE));
         } catch (Exception e) {
             GeneralUtils.printStackTrace(e, generalUtils);
             return -1;
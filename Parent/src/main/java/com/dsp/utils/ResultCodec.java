@@ -0,0 +1,106 @@
+package com.dsp.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+//encoding of OCR results shared by the worker, the manager and the local app.
+//a result travels through the queue either as plain text, gzip compressed and base64 encoded (ENCODING_ATTRIBUTE = GZIP),
+//or as a pointer (POINTER_ATTRIBUTE) to an S3 object the worker already wrote.
+//result objects in S3 (and results stored in a range of a segment object) are either plain text or gzip,
+//decodeObject() tells them apart by the gzip magic bytes
+public class ResultCodec {
+
+    public static final String ENCODING_ATTRIBUTE = "ResultEncoding";
+    public static final String POINTER_ATTRIBUTE = "ResultKey";
+    public static final String GZIP = "gzip";
+
+    // key of a single url result in the S3 bucket, the local app reads the results of a job under <localAppID>_result/results/
+    public static String resultKey(String localAppID, String uid) {
+        return localAppID + "_result/results/" + uid;
+    }
+
+    // key of the object of the result a job summary points to: the uid of a result of the job, or the full key of a
+    // result shared between jobs (the manager's results cache), which is kept when the job's results are deleted.
+    // a shared result may be a range of a segment object (see rangeRef)
+    public static String summaryResultKey(String responseKey, String value) {
+        return value.indexOf('/') >= 0 ? refObjectKey(value) : responseKey + "/results/" + value;
+    }
+
+    // reference to a result stored as length bytes at offset of a segment object, which holds the results of many urls
+    public static String rangeRef(String objectKey, long offset, int length) {
+        return objectKey + "@" + offset + "+" + length;
+    }
+
+    // the object of a result reference
+    public static String refObjectKey(String ref) {
+        int at = ref.lastIndexOf('@');
+        return at < 0 ? ref : ref.substring(0, at);
+    }
+
+    // offset of the result in its object, -1 if the result is the whole object
+    public static long refOffset(String ref) {
+        int at = ref.lastIndexOf('@');
+        return at < 0 ? -1 : Long.parseLong(ref.substring(at + 1, ref.indexOf('+', at)));
+    }
+
+    // length of the result in its object, -1 if the result is the whole object
+    public static int refLength(String ref) {
+        int at = ref.lastIndexOf('@');
+        return at < 0 ? -1 : Integer.parseInt(ref.substring(ref.indexOf('+', at) + 1));
+    }
+
+    // the uid part of a result key
+    public static String resultUid(String resultKey) {
+        return resultKey.substring(resultKey.lastIndexOf('/') + 1);
+    }
+
+    public static byte[] compress(String result) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(result.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // can't happen writing to memory
+        }
+        return bytes.toByteArray();
+    }
+
+    public static String decompress(byte[] compressed) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    // message body of a compressed result
+    public static String toBody(byte[] compressed) {
+        return Base64.getEncoder().encodeToString(compressed);
+    }
+
+    public static byte[] fromBody(String body) {
+        return Base64.getDecoder().decode(body);
+    }
+
+    // decode a result object read from S3
+    public static String decodeObject(byte[] object) throws IOException {
+        if (isGzip(object)) {
+            return decompress(object);
+        }
+        return new String(object, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isGzip(byte[] object) {
+        return object.length >= 2 && (object[0] & 0xff) == 0x1f && (object[1] & 0xff) == 0x8b;
+    }
+}
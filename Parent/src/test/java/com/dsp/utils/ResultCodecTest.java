@@ -0,0 +1,50 @@
+package com.dsp.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ResultCodecTest {
+
+    @Test
+    public void parsesRangeRef() {
+        String ref = ResultCodec.rangeRef("cache/segments/abc", 1234L, 56);
+        assertEquals("cache/segments/abc", ResultCodec.refObjectKey(ref));
+        assertEquals(1234L, ResultCodec.refOffset(ref));
+        assertEquals(56, ResultCodec.refLength(ref));
+    }
+
+    @Test
+    public void parsesRangeRefBeyondTwoGigabytes() {
+        String ref = ResultCodec.rangeRef("cache/segments/abc", 3L * 1024 * 1024 * 1024, 10);
+        assertEquals(3L * 1024 * 1024 * 1024, ResultCodec.refOffset(ref));
+        assertEquals(10, ResultCodec.refLength(ref));
+    }
+
+    @Test
+    public void parsesRangeRefOfKeyWithAtSign() {
+        String ref = ResultCodec.rangeRef("cache/user@host/segment", 0, 7);
+        assertEquals("cache/user@host/segment", ResultCodec.refObjectKey(ref));
+        assertEquals(0L, ResultCodec.refOffset(ref));
+        assertEquals(7, ResultCodec.refLength(ref));
+    }
+
+    @Test
+    public void wholeObjectRefHasNoRange() {
+        String ref = "local_result/results/uid";
+        assertEquals(ref, ResultCodec.refObjectKey(ref));
+        assertEquals(-1L, ResultCodec.refOffset(ref));
+        assertEquals(-1, ResultCodec.refLength(ref));
+    }
+
+    @Test
+    public void decodesCompressedAndPlainObjects() throws IOException {
+        String text = "line one\nline two\n";
+        assertEquals(text, ResultCodec.decodeObject(ResultCodec.compress(text)));
+        assertEquals(text, ResultCodec.decodeObject(text.getBytes("UTF-8")));
+        assertArrayEquals(ResultCodec.compress(text), ResultCodec.fromBody(ResultCodec.toBody(ResultCodec.compress(text))));
+    }
+}
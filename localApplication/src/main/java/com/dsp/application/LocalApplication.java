@@ -4,6 +4,7 @@ import com.dsp.aws.EC2Client;
 import com.dsp.aws.S3client;
 import com.dsp.aws.SQSClient;
 import com.dsp.utils.GeneralUtils;
+import com.dsp.utils.ResultCodec;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.MapType;
 import com.fasterxml.jackson.databind.type.TypeFactory;
@@ -19,14 +20,21 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class LocalApplication {
     private static final String DELETE_S3 = "true";
+    //results of a segment object read at once, in a single ranged read
+    private static final long MAX_RANGE_READ_BYTES = 16 * 1024 * 1024;
+    //html buffered before it is appended to the output file
+    private static final int HTML_FLUSH_CHARS = 64 * 1024;
     private static boolean isManagerDone = false;
     private static boolean shouldTerminate = false;
     private static EC2Client ec2;
@@ -38,7 +46,16 @@ public class LocalApplication {
     private static String localToManagerQueueUrl = null;
     private static String managerToLocalQueueUrl = null;
     private static String responseKey = null;
+    //key of the job's results in s3, the progress messages arrive before the response key
+    private static String jobResultsKey = null;
+    //incremental mode: the results are written to the html as the manager sends them, before the summary
+    private static String outputFilePath = null;
+    private static boolean htmlStarted = false;
+    //occurrences of every url already written to the html
+    private static final HashMap<String, Integer> writtenCounts = new HashMap<>();
     private static int n;
+    //optional task options given as "name=value" cli args, sent to the manager as message attributes
+    private static final HashMap<String, String> taskOptions = new HashMap<>();
     private static ObjectMapper mapper;
 
     public static void main(String[] args){
@@ -60,8 +77,8 @@ public class LocalApplication {
         String inputFileName = args[0];
         String outputFileName = args[1];
         n = Math.max(Integer.parseInt(args[2]), 1);
-        if(args.length == 4 && args[3].equals("terminate")) {
-            shouldTerminate = true;
+        for (int i = 3; i < args.length; i++) {
+            parseOptionalArg(args[i]);
         }
 
         //init configuration object
@@ -85,6 +102,8 @@ public class LocalApplication {
 
         //upload input file to s3 + send message to manager
         String localAppID = GeneralUtils.getUniqueID();
+        jobResultsKey = localAppID + "_result";
+        outputFilePath = "outputs"+ File.separator + outputFileName +".html";
 
         // init an sqs queue for manager to local communication
         managerToLocalQueueUrl = GeneralUtils.initSqs("managerToLocalQueueUrl_"+localAppID, sqs);
@@ -113,6 +132,9 @@ public class LocalApplication {
 
         if(responseKey.equals("MANAGER_TERMINATED")){
             generalUtils.logPrint("Exiting local application: manager node terminated early...");
+            if(htmlStarted){
+                appendToFile(outputFilePath, "</body>\n" + "<html>"); // keep the results written so far
+            }
             if(!sqs.deleteQueue(managerToLocalQueueUrl)){
                 generalUtils.logPrint("Error at deleting sqs queue managerToLocalQueueUrl");
             }
@@ -135,6 +157,31 @@ public class LocalApplication {
         generalUtils.logPrint("Exiting local application");
     }
 
+    //optional args: "terminate", "incremental", "preprocess=<steps>"
+    private static void parseOptionalArg(String arg) {
+        if(arg.equals("terminate")) {
+            shouldTerminate = true;
+        }
+        else if(arg.equals("incremental")) {
+            taskOptions.put("Incremental", "true");
+        }
+        else if(arg.startsWith("preprocess=")) {
+            taskOptions.put("Preprocess", arg.substring("preprocess=".length()));
+        }
+        else if(arg.startsWith("profile=")) {
+            taskOptions.put("OcrProfile", arg.substring("profile=".length()));
+        }
+        else if(arg.startsWith("timeout=")) {
+            taskOptions.put("TimeoutSeconds", arg.substring("timeout=".length()));
+        }
+        else if(arg.startsWith("weight=")) {
+            taskOptions.put("Weight", arg.substring("weight=".length()));
+        }
+        else {
+            generalUtils.logPrint("Ignoring unknown argument: " + arg);
+        }
+    }
+
     private static void sendTask(String inputFileName, String s3InputFileKey) {
         //upload input file to s3 bucket
         if(s3.putObject(s3BucketName,s3InputFileKey,inputFileName)){
@@ -143,6 +190,9 @@ public class LocalApplication {
             attributesMap.put("To", MessageAttributeValue.builder().dataType("String").stringValue("Manager").build());
             attributesMap.put("N", MessageAttributeValue.builder().dataType("String").stringValue(Integer.toString(n)).build());
             attributesMap.put("managerToLocalQueueUrl", MessageAttributeValue.builder().dataType("String").stringValue(managerToLocalQueueUrl).build());
+            for (HashMap.Entry<String, String> option : taskOptions.entrySet()) {
+                attributesMap.put(option.getKey(), MessageAttributeValue.builder().dataType("String").stringValue(option.getValue()).build());
+            }
             if(!sqs.sendMessage(localToManagerQueueUrl, s3InputFileKey,attributesMap)) {
                 generalUtils.logPrint("Error at sending task message to manager");
                 System.exit(1);
@@ -154,68 +204,157 @@ public class LocalApplication {
         }
     }
 
-    //create final html output file
+    //create final html output file, with the results that weren't written from progress messages yet
     private static void createHtml(String outputFileName, String tempId) {
         generalUtils.logPrint("creating HTML to " + outputFileName);
-        int writeThreshold = 0;
         try {
             List<String> mapJsonString = Files.readAllLines(Paths.get("temps", outputFileName+"_"+tempId), StandardCharsets.UTF_8);
 
-            File outputFile = new File("outputs"+ File.separator + outputFileName +".html");
+            startHtml();
+            writeResults(mapJsonString.get(0), mapJsonString.get(1));
+            String suffix = "</body>\n" + "<html>";
+            appendToFile(outputFilePath, suffix);
+            if(!new File(Paths.get("temps", outputFileName +"_"+ tempId).toString()).delete()){
+                generalUtils.logPrint("temp image can't be deleted");
+            }
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Error at creating html file");
+        }
+    }
+
+    private static void startHtml() {
+        if(htmlStarted){
+            return;
+        }
+        htmlStarted = true;
+        try {
+            File outputFile = new File(outputFilePath);
             if(!outputFile.createNewFile()){
                 generalUtils.logPrint("Error while creating output file");
             }
-            String prefix = "<html>\n" + "<title>OCR</title>\n" + "<body>\n";
-            appendToFile("outputs"+ File.separator + outputFileName +".html",prefix);
-
-            //convert JSON string to Map
-            TypeFactory typeFactory = mapper.getTypeFactory();
-            MapType mapType1 = typeFactory.constructMapType(HashMap.class, String.class, AtomicInteger.class);
-            HashMap<String, AtomicInteger> resultCounters = mapper.readValue(mapJsonString.get(0), mapType1);
-
-            MapType mapType2 = typeFactory.constructMapType(HashMap.class, String.class, String.class);
-            HashMap<String, String> uidToUrl = mapper.readValue(mapJsonString.get(1), mapType2);
-
-            //build html string
-            StringBuilder ocrResults = new StringBuilder();
-
-            for(HashMap.Entry<String, String> entry : uidToUrl.entrySet()) {
-                String url = entry.getKey();
-                String uid = entry.getValue();
-                String result = s3.getObjectToMemory(s3BucketName, responseKey+"/results/"+uid);
-                AtomicInteger counter = resultCounters.get(url);
-                for(int i=0; i<counter.get(); i++) {
-                    ocrResults.append("\t<p>\n" + "\t\t<img src=\"")
-                            .append(url).append("\"><br/>\n")
-                            .append("\t\t")
-                            .append(result.replaceAll("\n", "<br/>"))
-                            .append("\n")
-                            .append("\t</p>\n");
-                    writeThreshold++;
-                    if(writeThreshold == 100){
-                        appendToFile("outputs"+ File.separator + outputFileName +".html",ocrResults.toString());
-                        writeThreshold = 0;
-                        ocrResults = new StringBuilder();
-                    }
-                }
+        } catch (IOException e) {
+            e.printStackTrace();
+            generalUtils.logPrint("Error while creating output file");
+        }
+        String prefix = "<html>\n" + "<title>OCR</title>\n" + "<body>\n";
+        appendToFile(outputFilePath, prefix);
+    }
+
+    //write the results of a summary or a progress message to the html: a json map of url counters and a json map of
+    //url to result reference. occurrences of a url that were already written are skipped
+    private static void writeResults(String countersJson, String uidJson) throws IOException {
+        //convert JSON string to Map
+        TypeFactory typeFactory = mapper.getTypeFactory();
+        MapType mapType1 = typeFactory.constructMapType(HashMap.class, String.class, AtomicInteger.class);
+        HashMap<String, AtomicInteger> resultCounters = mapper.readValue(countersJson, mapType1);
+
+        MapType mapType2 = typeFactory.constructMapType(HashMap.class, String.class, String.class);
+        HashMap<String, String> uidToUrl = mapper.readValue(uidJson, mapType2);
+
+        //occurrences of every url to write now
+        HashMap<String, Integer> counts = new HashMap<>();
+        for(String url : uidToUrl.keySet()) {
+            AtomicInteger counter = resultCounters.get(url);
+            int count = (counter == null ? 0 : counter.get()) - writtenCounts.getOrDefault(url, 0);
+            if(count > 0){
+                counts.put(url, count);
+                writtenCounts.merge(url, count, Integer::sum);
+            }
+        }
 
+        //build html string
+        StringBuilder ocrResults = new StringBuilder();
+
+        //most results are ranges of a few segment objects (key@offset+length), they are grouped by segment
+        Map<String, List<Map.Entry<String, String>>> segmentResults = new HashMap<>();
+        for(HashMap.Entry<String, String> entry : uidToUrl.entrySet()) {
+            String url = entry.getKey();
+            String uid = entry.getValue();
+            if(!counts.containsKey(url)){
+                continue;
             }
-            if(!ocrResults.toString().isEmpty()){
-                appendToFile("outputs"+ File.separator + outputFileName +".html",ocrResults.toString());
+            if(ResultCodec.refOffset(uid) >= 0){
+                segmentResults.computeIfAbsent(ResultCodec.refObjectKey(uid), key -> new ArrayList<>()).add(entry);
+                continue;
             }
-            String suffix = "</body>\n" + "<html>";
-            appendToFile("outputs"+ File.separator + outputFileName +".html",suffix);
-            if(!new File(Paths.get("temps", outputFileName +"_"+ tempId).toString()).delete()){
-                generalUtils.logPrint("temp image can't be deleted");
+            //results are stored as plain text or compressed, in the job's results or in the shared results cache
+            byte[] resultObject = s3.getObjectBytes(s3BucketName, ResultCodec.summaryResultKey(jobResultsKey, uid));
+            String result = resultObject == null ? "" : ResultCodec.decodeObject(resultObject);
+            appendResult(outputFilePath, ocrResults, url, result, counts.get(url));
+        }
+        //a segment is read in ranged reads of many results each, in offset order
+        for(Map.Entry<String, List<Map.Entry<String, String>>> segment : segmentResults.entrySet()) {
+            List<Map.Entry<String, String>> results = segment.getValue();
+            results.sort(Comparator.comparingLong(result -> ResultCodec.refOffset(result.getValue())));
+            int first = 0;
+            while(first < results.size()){
+                long start = ResultCodec.refOffset(results.get(first).getValue());
+                long end = start + ResultCodec.refLength(results.get(first).getValue());
+                int last = first + 1;
+                while(last < results.size()){
+                    String ref = results.get(last).getValue();
+                    long refEnd = ResultCodec.refOffset(ref) + ResultCodec.refLength(ref);
+                    if(refEnd - start > MAX_RANGE_READ_BYTES){
+                        break;
+                    }
+                    end = Math.max(end, refEnd);
+                    last++;
+                }
+                byte[] range = end > start ? s3.getObjectRange(s3BucketName, segment.getKey(), start, end - start) : new byte[0];
+                for(int i = first; i < last; i++){
+                    String url = results.get(i).getKey();
+                    String ref = results.get(i).getValue();
+                    int offset = (int) (ResultCodec.refOffset(ref) - start);
+                    String result = range == null ? ""
+                            : ResultCodec.decodeObject(Arrays.copyOfRange(range, offset, offset + ResultCodec.refLength(ref)));
+                    appendResult(outputFilePath, ocrResults, url, result, counts.get(url));
+                }
+                first = last;
             }
+        }
+        if(ocrResults.length() > 0){
+            appendToFile(outputFilePath, ocrResults.toString());
+        }
+    }
 
+    //write the results of a progress message of an incremental job
+    private static void writeProgress(Message m) {
+        int separator = m.body().indexOf('\n');
+        if(separator < 0){
+            generalUtils.logPrint("Ignoring invalid progress message");
+            return;
+        }
+        startHtml();
+        try {
+            writeResults(m.body().substring(0, separator), m.body().substring(separator + 1));
         } catch (IOException e) {
             e.printStackTrace();
-            System.out.println("Error at creating html file");
+            generalUtils.logPrint("Error at writing progress results to the html file");
+        }
+        Map<String, MessageAttributeValue> attributes = m.messageAttributes();
+        if(attributes.containsKey("Completed") && attributes.containsKey("Total")){
+            String total = attributes.get("Total").stringValue();
+            generalUtils.logPrint("Completed " + attributes.get("Completed").stringValue() + (total.equals("-1") ? "" : "/" + total) + " urls");
         }
     }
 
-
+    //add the result of a url to the html, once for every occurrence of the url in the input
+    private static void appendResult(String outputFilePath, StringBuilder ocrResults, String url, String result, int count) {
+        for(int i=0; i<count; i++) {
+            ocrResults.append("\t<p>\n" + "\t\t<img src=\"")
+                    .append(url).append("\"><br/>\n")
+                    .append("\t\t")
+                    .append(result.replaceAll("\n", "<br/>"))
+                    .append("\n")
+                    .append("\t</p>\n");
+        }
+        if(ocrResults.length() >= HTML_FLUSH_CHARS){
+            appendToFile(outputFilePath, ocrResults.toString());
+            ocrResults.setLength(0);
+        }
+    }
 
     private static void appendToFile(String outputFilePath, String toWrite) {
         try {
@@ -226,14 +365,26 @@ public class LocalApplication {
         }
     }
 
-    //check if manager finished task (message in managerToLocalQueue)
+    //check if manager finished task (message in managerToLocalQueue), the progress messages of an incremental job are
+    //written to the html in the meantime
     private static boolean checkResponse() {
-        List<Message> messages = sqs.getMessages(managerToLocalQueueUrl, 1);
+        List<Message> messages = sqs.getMessages(managerToLocalQueueUrl, 10);
+        List<Message> progress = new ArrayList<>();
+        boolean done = false;
         for (Message m : messages) {
-            responseKey = m.body();
-            return true;
+            MessageAttributeValue type = m.messageAttributes().get("Type");
+            if (type != null && type.stringValue().equals("Progress")) {
+                writeProgress(m);
+                progress.add(m);
+            } else {
+                responseKey = m.body();
+                done = true;
+            }
+        }
+        if (!progress.isEmpty() && !sqs.deleteMessages(progress, managerToLocalQueueUrl)) {
+            generalUtils.logPrint("Error at deleting progress messages from managerToLocalQueue");
         }
-        return false;
+        return done;
     }
 
     //check if manager node is up, if not we will start it and all aws services required
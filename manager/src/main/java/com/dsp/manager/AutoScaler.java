@@ -0,0 +1,171 @@
+package com.dsp.manager;
+
+import com.dsp.aws.EC2Client;
+import com.dsp.aws.SQSClient;
+import com.dsp.utils.GeneralUtils;
+import software.amazon.awssdk.services.ec2.model.Filter;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceType;
+import software.amazon.awssdk.services.ec2.model.Tag;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+//sizes the worker fleet from the depth of the workers queue (waiting and in flight tasks) and the task completion rate
+//the workers report in their heartbeats, with the ScalingPolicy. the desired size is capped by the workers the jobs ask
+//for (their n) and the instances limit.
+//the fleet is counted from the WorkerRegistry, the ec2 instances are only described every reconcileIntervalMs.
+//scaling out starts new instances, at most once every scaleOutCooldownMs. scaling in sends WORKER_TERMINATE messages,
+//a worker that gets one finishes the tasks it already has and terminates itself. scaling in happens only after the
+//desired size stayed below the fleet for scaleInEvaluations evaluations in a row (hysteresis), and not within
+//scaleInCooldownMs of any scaling, so a short dip in the backlog doesn't stop workers that are needed right after
+public class AutoScaler {
+
+    //weight of a new rate measurement in the worker rate average
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final EC2Client ec2;
+    private final SQSClient sqs;
+    private final String tasksQueueUrl;
+    private final WorkerRegistry registry;
+    private final long reconcileIntervalMs;
+    private final ScalingPolicy policy;
+    private final int maxWorkers;
+    private final long scaleOutCooldownMs;
+    private final long scaleInCooldownMs;
+    private final int scaleInEvaluations;
+    private final GeneralUtils generalUtils;
+    private String ami;
+    private String keyName;
+    private String arn;
+    private String userData;
+
+    private long lastReconcileAt;
+    //tasks per second of a worker, an estimate until it is measured
+    private double workerRate;
+    private long lastScaleOutAt;
+    private long lastScaleInAt;
+    private int evaluationsBelow;
+
+    public AutoScaler(EC2Client ec2, SQSClient sqs, String tasksQueueUrl, WorkerRegistry registry, long reconcileIntervalMs,
+                      ScalingPolicy policy, int maxWorkers, double initialWorkerRate,
+                      long scaleOutCooldownMs, long scaleInCooldownMs, int scaleInEvaluations, GeneralUtils generalUtils) {
+        this.ec2 = ec2;
+        this.sqs = sqs;
+        this.tasksQueueUrl = tasksQueueUrl;
+        this.registry = registry;
+        this.reconcileIntervalMs = reconcileIntervalMs;
+        this.policy = policy;
+        this.maxWorkers = maxWorkers;
+        this.workerRate = initialWorkerRate;
+        this.scaleOutCooldownMs = scaleOutCooldownMs;
+        this.scaleInCooldownMs = scaleInCooldownMs;
+        this.scaleInEvaluations = scaleInEvaluations;
+        this.generalUtils = generalUtils;
+    }
+
+    //how new workers are started
+    public synchronized void setLaunchSettings(String ami, String keyName, String arn, String userData) {
+        this.ami = ami;
+        this.keyName = keyName;
+        this.arn = arn;
+        this.userData = userData;
+    }
+
+    //measure the backlog and the worker rate and scale the fleet. jobWorkers is the number of workers the running jobs
+    //ask for, 0 when there are no jobs. heldTasks are tasks the manager didn't release to the workers queue yet
+    public synchronized void evaluate(int jobWorkers, int heldTasks) {
+        long now = System.currentTimeMillis();
+        if (now - lastReconcileAt >= reconcileIntervalMs) {
+            reconcile();
+            lastReconcileAt = now;
+        }
+        int backlog = sqs.getPendingMessagesSize(tasksQueueUrl);
+        if (backlog < 0) {
+            return; // the backlog is unknown, keep the fleet
+        }
+        backlog += heldTasks;
+        int workers = registry.size();
+        //the rate of a worker is only measured while there is work, otherwise it measures the demand
+        double rate = registry.workerRate();
+        if (backlog > 0 && rate > 0) {
+            workerRate = RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * workerRate;
+        }
+
+        int desired = Math.min(policy.desiredWorkers(backlog, workerRate, workers), Math.min(jobWorkers, maxWorkers));
+        if (backlog > 0) {
+            desired = Math.max(desired, 1);
+        }
+        generalUtils.logPrint(String.format("AutoScaler: backlog %d, %d workers, %.3f tasks/s per worker, %d desired (jobs ask for %d)",
+                backlog, workers, workerRate, desired, jobWorkers));
+
+        if (desired > workers) {
+            evaluationsBelow = 0;
+            if (now - lastScaleOutAt >= scaleOutCooldownMs) {
+                scaleOut(desired - workers);
+                lastScaleOutAt = now;
+            }
+        } else if (desired < workers) {
+            evaluationsBelow++;
+            if (evaluationsBelow >= scaleInEvaluations && now - lastScaleInAt >= scaleInCooldownMs
+                    && now - lastScaleOutAt >= scaleInCooldownMs) {
+                scaleIn(workers - desired);
+                lastScaleInAt = now;
+                evaluationsBelow = 0;
+            }
+        } else {
+            evaluationsBelow = 0;
+        }
+    }
+
+    //align the registry with the worker instances of ec2, for workers that were started before the manager or by another
+    //manager, and workers that died before sending a heartbeat
+    private void reconcile() {
+        Filter filter = Filter.builder()
+                .name("instance-state-name")
+                .values("running", "pending")
+                .build();
+        List<Instance> instances = ec2.getAllInstances(filter);
+        if (instances.isEmpty() && registry.size() > 0) {
+            return; // describing the instances may have failed, keep the registry
+        }
+        Set<String> workerIds = new HashSet<>();
+        for (Instance instance : instances) {
+            for (Tag tag : instance.tags()) {
+                if (tag.value().equals("worker")) {
+                    workerIds.add(instance.instanceId());
+                    break;
+                }
+            }
+        }
+        registry.reconcile(workerIds);
+    }
+
+    private void scaleOut(int count) {
+        generalUtils.logPrint("AutoScaler: starting " + count + " workers");
+        List<Instance> instances = ec2.createEC2Instances(ami, keyName, count, count, userData, arn, InstanceType.T2_MICRO);
+        if (instances != null) {
+            List<String> instanceIds = new ArrayList<>();
+            for (Instance instance : instances) {
+                instanceIds.add(instance.instanceId());
+                if (!ec2.createTag("Name", "worker", instance.instanceId())) {
+                    generalUtils.logPrint("Error in AutoScaler: ec2.createTag with instance Id: " + instance.instanceId());
+                }
+            }
+            registry.launched(instanceIds);
+        }
+    }
+
+    //every terminate message stops one worker once it finished its tasks
+    private void scaleIn(int count) {
+        generalUtils.logPrint("AutoScaler: stopping " + count + " workers");
+        for (int i = 0; i < count; i++) {
+            if (!sqs.sendMessage(tasksQueueUrl, "WORKER_TERMINATE", new HashMap<>())) {
+                generalUtils.logPrint("Error in AutoScaler: sending WORKER_TERMINATE");
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.dsp.manager;
+
+//the parts of a document fanned out as page range sub tasks, the document is done when all of its parts are.
+//the document failed if any of its parts failed, so its result isn't cached as a good result
+public class DocumentParts {
+
+    private final String[] texts;
+    private boolean failed;
+
+    public DocumentParts(int parts) {
+        texts = new String[parts];
+    }
+
+    //keep the text of a part (the marked failure of a failed part), returns true for the part that completes the
+    //document. a duplicate part is ignored
+    public synchronized boolean add(int part, String text, boolean failedPart) {
+        if (texts[part] != null) {
+            return false;
+        }
+        texts[part] = text;
+        failed |= failedPart;
+        for (String partText : texts) {
+            if (partText == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //the text of the whole document in page order
+    public synchronized String getText() {
+        return String.join("", texts);
+    }
+
+    public synchronized boolean isFailed() {
+        return failed;
+    }
+}
@@ -0,0 +1,19 @@
+package com.dsp.manager;
+
+//enough workers to drain the backlog within the target drain time, at the measured rate of a worker
+public class DrainTimePolicy implements ScalingPolicy {
+
+    private final double targetDrainSeconds;
+
+    public DrainTimePolicy(double targetDrainSeconds) {
+        this.targetDrainSeconds = targetDrainSeconds;
+    }
+
+    @Override
+    public int desiredWorkers(int backlog, double workerRate, int currentWorkers) {
+        if (backlog <= 0) {
+            return 0;
+        }
+        return (int) Math.ceil(backlog / (workerRate * targetDrainSeconds));
+    }
+}
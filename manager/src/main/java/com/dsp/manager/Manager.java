@@ -4,22 +4,23 @@ import com.dsp.aws.EC2Client;
 import com.dsp.aws.S3client;
 import com.dsp.aws.SQSClient;
 import com.dsp.utils.GeneralUtils;
+import com.dsp.utils.ResultCodec;
 import software.amazon.awssdk.core.util.json.JacksonUtils;
 import software.amazon.awssdk.regions.internal.util.EC2MetadataUtils;
 import software.amazon.awssdk.services.ec2.model.Filter;
 import software.amazon.awssdk.services.ec2.model.Instance;
-import software.amazon.awssdk.services.ec2.model.InstanceType;
 import software.amazon.awssdk.services.ec2.model.Tag;
 import software.amazon.awssdk.services.sqs.model.Message;
 import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -34,6 +35,63 @@ public class Manager {
     public static final Integer MAX_INSTANCES = 17; // max instances of student aws account is 19
     private static final int NUM_OF_THREADS = Math.max(Runtime.getRuntime().availableProcessors(), 8);
     private static final String instanceId = EC2MetadataUtils.getInstanceId();
+    private static final int SQS_BATCH_SIZE = 10;
+    //threads receiving and handling the results of the workers, independent of the local app listeners
+    private static final int RESULT_CONSUMER_THREADS = 4;
+    //long polling wait of a result receive
+    private static final int RESULT_RECEIVE_WAIT_SECONDS = 10;
+    //threads uploading the parts of the result segments
+    private static final int RESULT_UPLOAD_THREADS = 4;
+    private static final int DISPATCH_THREADS = 8;
+    private static final int DISPATCH_RETRIES = 3;
+    private static final long DISPATCH_BACKOFF_MS = 500;
+    //urls read from the input before they are sent
+    private static final int INGEST_CHUNK_SIZE = 100;
+    //fair scheduling of the jobs: tasks of a job waiting to be released, and the window of released tasks without a
+    //result (a few per OCR slot of the workers)
+    private static final int SCHEDULER_MAX_PENDING_PER_JOB = 10_000;
+    private static final int SCHEDULER_MIN_WINDOW = 50;
+    private static final int SCHEDULER_MAX_WINDOW = 2_000;
+    private static final int SCHEDULER_WINDOW_PER_SLOT = 4;
+    private static final long SCHEDULER_POLL_MS = 1_000;
+    //the weight of a job (batches released in its turn) set by the local app, 1 by default
+    private static final int MAX_JOB_WEIGHT = 10;
+    //incremental jobs: the results completed since the last progress message are sent to the local app at this interval
+    private static final long PROGRESS_INTERVAL_MS = 10_000;
+    //the longest a completed result of an incremental job waits for its result segment to be written
+    private static final long PROGRESS_MAX_DELAY_MS = 60_000;
+    //size of a progress message body (its urls and result references), below the 256KB limit of sqs
+    private static final int PROGRESS_MAX_MESSAGE_CHARS = 64_000;
+    private static final long JOB_VISIBILITY_EXTEND_MS = 10_000;
+    //optional job attributes sent by the local app that are forwarded to the workers with every task
+    private static final String[] FORWARDED_TASK_ATTRIBUTES = {"Preprocess", "TimeoutSeconds", "OcrProfile"};
+    //job attributes that change the OCR result of a url, part of the results cache key
+    private static final String[] RESULT_CACHE_ATTRIBUTES = {"Preprocess", "OcrProfile"};
+    private static final int RESULT_CACHE_MAX_ENTRIES = 100_000;
+    private static final long RESULT_CACHE_TTL_MS = TimeUnit.DAYS.toMillis(7);
+    //failed urls are retried after a short time
+    private static final long RESULT_CACHE_NEGATIVE_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final long RESULT_CACHE_SAVE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+    //time the local app has to read the results of a completed job before unreferenced result objects are deleted
+    private static final long RESULT_CACHE_DELETE_GRACE_MS = TimeUnit.MINUTES.toMillis(30);
+    //the results of a job are written in segment objects, uploaded in parts
+    private static final int RESULT_SEGMENT_PART_BYTES = 8 * 1024 * 1024;
+    private static final long RESULT_SEGMENT_MAX_BYTES = 256L * 1024 * 1024;
+    //autoscaling: the fleet drains the tasks queue in TARGET_DRAIN_SECONDS at the measured rate of a worker
+    private static final double TARGET_DRAIN_SECONDS = 300;
+    //tasks per second of a worker until it is measured
+    private static final double INITIAL_WORKER_RATE = 0.2;
+    private static final long AUTOSCALE_INTERVAL_MS = 30_000;
+    private static final long SCALE_OUT_COOLDOWN_MS = 60_000;
+    private static final long SCALE_IN_COOLDOWN_MS = TimeUnit.MINUTES.toMillis(5);
+    //evaluations in a row with fewer desired workers before scaling in
+    private static final int SCALE_IN_EVALUATIONS = 4;
+    //a worker without a heartbeat for this long is considered gone
+    private static final long WORKER_HEARTBEAT_TIMEOUT_MS = 60_000;
+    //time a started worker has to send its first heartbeat
+    private static final long WORKER_BOOT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+    //the workers registry is checked against the ec2 instances at this interval
+    private static final long WORKER_RECONCILE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
 
     private static EC2Client ec2;
     private static S3client s3;
@@ -41,12 +99,29 @@ public class Manager {
     private static GeneralUtils generalUtils;
 
     private static ExecutorService resultExecutor;
+    //bounded pool sending the task batches of all the jobs
+    private static ExecutorService dispatchExecutor;
+    //uploads the parts of the result segments of all the jobs
+    private static ExecutorService uploadExecutor;
+    //sizes the worker fleet
+    private static AutoScaler autoScaler;
+    //the workers known from their heartbeats
+    private static WorkerRegistry workerRegistry;
+    //releases the tasks of the jobs to the workers queue in weighted round robin
+    private static TaskScheduler taskScheduler;
+    //runs the autoscaler, periodically and when a job asks for workers
+    private static ScheduledExecutorService loadBalanceExecutor;
+    //an evaluation of the autoscaler is already scheduled, the requests of the jobs in the meantime are coalesced
+    private static final AtomicBoolean workerBalanceRequested = new AtomicBoolean(false);
+    //OCR results of urls shared between jobs
+    private static UrlResultCache resultCache;
 
     private static String localToManagerQueueUrl;
     private static String managerToWorkersQueueUrl;
     private static String workersToManagerQueueUrl;
 
-    //hashmap of hashmaps: Outer hashmap: key=localAppID, value=Inner hashmap: key=url of task, value=url counters
+    //hashmap of hashmaps: Outer hashmap: key=localAppID, value=Inner hashmap: key=url of task, value=number of occurrences
+    //of the url in the input. every url is sent to the workers once, and its result is repeated for every occurrence
     private static Map<String, Map<String, AtomicInteger>> urlCounters;
 
     private static Map<String, Map<String, String>> uniqueIDToUrlMap;
@@ -58,12 +133,19 @@ public class Manager {
     private static Map<String, Integer> localAppInputSizes;
     //hashmap for the number of workers needed per local app
     private static Map<String, Integer> workersNeededPerApp;
+    //documents fanned out as page range sub tasks: key=DocumentID, value=the parts received so far
+    private static Map<String, DocumentParts> documentParts;
+    //hashmap in which key is LocalAppID and value is the part of the results cache key from the job options
+    private static Map<String, String> jobCacheOptions;
+    //hashmap in which key is LocalAppID and value is the writer of the result segments of the job
+    private static Map<String, ResultSegmentWriter> jobSegments;
+    //hashmap in which key is LocalAppID and value is the cached results the job uses, retained until the job is done
+    private static Map<String, List<String>> jobCachedResults;
+    //hashmap in which key is LocalAppID of an incremental job and value is its completed urls not sent to the local app yet
+    private static Map<String, Queue<String>> jobProgress;
 
-    //number of running worker nodes
-    private static Integer numOfActiveWorkers;
     //number of total subtasks in the system
 //    private static Integer sizeOfCurrentInput;
-    private static final Object lock = new Object();
     //config fields
     private static String arn;
     private static String ami;
@@ -96,18 +178,58 @@ public class Manager {
         managerToWorkersQueueUrl = GeneralUtils.initSqs(MANAGER_TO_WORKERS_QUEUE_NAME, sqs);
         workersToManagerQueueUrl = GeneralUtils.initSqs(WORKERS_TO_MANAGER_QUEUE_NAME, sqs);
 
-        numOfActiveWorkers = 0;
+        workerRegistry = new WorkerRegistry(WORKER_HEARTBEAT_TIMEOUT_MS, WORKER_BOOT_TIMEOUT_MS);
+        autoScaler = new AutoScaler(ec2, sqs, managerToWorkersQueueUrl, workerRegistry, WORKER_RECONCILE_INTERVAL_MS,
+                new DrainTimePolicy(TARGET_DRAIN_SECONDS), MAX_INSTANCES, INITIAL_WORKER_RATE, SCALE_OUT_COOLDOWN_MS, SCALE_IN_COOLDOWN_MS, SCALE_IN_EVALUATIONS, generalUtils);
+        autoScaler.setLaunchSettings(ami, keyName, arn, createWorkerScript());
+        taskScheduler = new TaskScheduler(SQS_BATCH_SIZE, SCHEDULER_MAX_PENDING_PER_JOB, SCHEDULER_MIN_WINDOW, SCHEDULER_MAX_WINDOW,
+                SCHEDULER_WINDOW_PER_SLOT, workerRegistry);
         uniqueIDToUrlMap = new ConcurrentHashMap<>();
         workersNeededPerApp = new ConcurrentHashMap<>();
         completedSubTasksCounters = new ConcurrentHashMap<>();
         urlCounters = new ConcurrentHashMap<>();
         managerToLocalQueues = new ConcurrentHashMap<>();
         localAppInputSizes = new ConcurrentHashMap<>();
+        documentParts = new ConcurrentHashMap<>();
+        jobCacheOptions = new ConcurrentHashMap<>();
+        jobProgress = new ConcurrentHashMap<>();
+        jobSegments = new ConcurrentHashMap<>();
+        jobCachedResults = new ConcurrentHashMap<>();
+
+        resultCache = new UrlResultCache(s3, s3BucketName, RESULT_CACHE_MAX_ENTRIES, RESULT_CACHE_TTL_MS,
+                RESULT_CACHE_NEGATIVE_TTL_MS, RESULT_CACHE_DELETE_GRACE_MS, generalUtils);
+        resultCache.load();
+        ScheduledExecutorService cacheExecutor = Executors.newSingleThreadScheduledExecutor();
+        cacheExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                resultCache.save();
+            } catch (Exception e) {
+                GeneralUtils.printStackTrace(e, generalUtils);
+            }
+        }, RESULT_CACHE_SAVE_INTERVAL_MS, RESULT_CACHE_SAVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        //send the completed results of the incremental jobs to their local apps
+        ScheduledExecutorService progressExecutor = Executors.newSingleThreadScheduledExecutor();
+        progressExecutor.scheduleWithFixedDelay(() -> {
+            for (String localAppID : jobProgress.keySet()) {
+                try {
+                    publishProgress(localAppID);
+                } catch (Exception e) {
+                    GeneralUtils.printStackTrace(e, generalUtils);
+                }
+            }
+        }, PROGRESS_INTERVAL_MS, PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
 
         AtomicInteger shutdownCounter = new AtomicInteger(0);
         AtomicBoolean shouldRun = new AtomicBoolean(true);
 
         resultExecutor = Executors.newFixedThreadPool(4);
+        dispatchExecutor = Executors.newFixedThreadPool(DISPATCH_THREADS);
+        uploadExecutor = Executors.newFixedThreadPool(RESULT_UPLOAD_THREADS);
+        //the scheduler thread hands the batches of the jobs to the dispatch threads
+        AtomicBoolean scheduleTasks = new AtomicBoolean(true);
+        ExecutorService schedulerExecutor = Executors.newSingleThreadExecutor();
+        schedulerExecutor.submit(() -> scheduleTasks(scheduleTasks));
         ExecutorService executor = Executors.newFixedThreadPool(NUM_OF_THREADS);
         //start all localToManagerQueue listeners
         for(int i=0; i<NUM_OF_THREADS; i++) {
@@ -126,121 +248,302 @@ public class Manager {
             });
         }
 
-        // check periodically that there are enough workers running
-        ExecutorService loadBalanceExecutor = Executors.newFixedThreadPool(1);
-        loadBalanceExecutor.submit(()-> {
-            while(shouldRun.get()) {
+        // size the worker fleet periodically, until the manager terminates (the jobs still running after a terminate
+        // message need their workers too)
+        loadBalanceExecutor = Executors.newSingleThreadScheduledExecutor();
+        loadBalanceExecutor.scheduleWithFixedDelay(() -> {
+            try {
                 checkWorkerBalance();
-                try {
-                    Thread.sleep(30_000);
-                } catch (InterruptedException e) {
-
-                    GeneralUtils.printStackTrace(e, generalUtils);
-                }
+            } catch (Exception e) {
+                GeneralUtils.printStackTrace(e, generalUtils);
             }
-        });
+        }, AUTOSCALE_INTERVAL_MS, AUTOSCALE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        //start the result consumers, polling the results of the workers
+        AtomicBoolean consumeResults = new AtomicBoolean(true);
+        ExecutorService resultConsumers = Executors.newFixedThreadPool(RESULT_CONSUMER_THREADS);
+        for(int i=0; i<RESULT_CONSUMER_THREADS; i++) {
+            resultConsumers.submit(() -> consumeResults(consumeResults));
+        }
 
+        //wait until terminate was received and all the jobs are done
         while (shutdownCounter.get() != NUM_OF_THREADS || !completedSubTasksCounters.isEmpty()){
-            //poll queue for results
             try {
-                List<Message> messages = sqs.getMessages(workersToManagerQueueUrl, 5);
-                for (Message m : messages) {
-                    //get all needed information and the result
-                    generalUtils.logPrint("Handling result message");
-                    handleResultMessage(m);
-                }
-                if(messages.isEmpty()){
-                    try {
-                        Thread.sleep(1_000);
-                    } catch (InterruptedException e) {
-                        GeneralUtils.printStackTrace(e, generalUtils);
-                    }
-                }
-            } catch (Exception e){
+                Thread.sleep(1_000);
+            } catch (InterruptedException e) {
                 GeneralUtils.printStackTrace(e, generalUtils);
-                generalUtils.logPrint("Error in listener thread: handleMessage failed, continuing...");
             }
         }
+        consumeResults.set(false);
+        resultConsumers.shutdown();
+        try {
+            if(!resultConsumers.awaitTermination(RESULT_RECEIVE_WAIT_SECONDS * 2, TimeUnit.SECONDS)){
+                resultConsumers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+        }
+        //the summaries of the last jobs are still written (closing their segments needs the upload threads)
+        resultExecutor.shutdown();
+        try {
+            while(!resultExecutor.awaitTermination(1, TimeUnit.MINUTES)){
+                generalUtils.logPrint("Waiting for the summaries of the last jobs");
+            }
+        } catch (InterruptedException e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+        }
         generalUtils.logPrint("Calling termination sequence");
+        scheduleTasks.set(false);
+        schedulerExecutor.shutdownNow();
+        loadBalanceExecutor.shutdownNow();
+        cacheExecutor.shutdownNow();
+        progressExecutor.shutdownNow();
+        uploadExecutor.shutdownNow();
         terminateSequence();
         // END OF MAIN
     }
 
+    //scale the workers to the backlog of the tasks queue, no more than the running jobs ask for
     private static void checkWorkerBalance() {
-        int delta;
-        List<Instance> instances;
         int numOfWorkersNeeded = 0;
-        try {
-            numOfWorkersNeeded = Collections.max(workersNeededPerApp.values());
-        } catch (NoSuchElementException e) {
-            GeneralUtils.printStackTrace(e,generalUtils);
+        for (int workersNeeded : workersNeededPerApp.values()) {
+            numOfWorkersNeeded = Math.max(numOfWorkersNeeded, workersNeeded);
         }
-        Filter filter = Filter.builder()
-                .name("instance-state-name")
-                .values("running", "pending")
-                .build();
-        synchronized (lock) {
-            numOfActiveWorkers = ec2.getNumberOfWorkerInstances(filter);
+        autoScaler.evaluate(numOfWorkersNeeded, taskScheduler.pendingTasks());
+    }
 
-            if (numOfWorkersNeeded <= numOfActiveWorkers) {
-                generalUtils.logPrint("In loadBalance: No extra workers needed. currently #" + numOfActiveWorkers);
-                return;
+    //send the batches released by the scheduler, on the dispatch threads
+    private static void scheduleTasks(AtomicBoolean scheduleTasks) {
+        while (scheduleTasks.get()) {
+            try {
+                TaskScheduler.Batch batch = taskScheduler.nextBatch(SCHEDULER_POLL_MS);
+                if (batch != null) {
+                    dispatchExecutor.submit(() -> sendTaskBatch(batch.localAppID, batch.tasks));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return; // the manager is terminating
+            } catch (Exception e) {
+                GeneralUtils.printStackTrace(e, generalUtils);
+                generalUtils.logPrint("Error in scheduler thread, continuing...");
             }
-            delta = numOfWorkersNeeded - numOfActiveWorkers;
-            generalUtils.logPrint("In loadBalance: " + delta + " more workers needed. currently (before) #" + numOfActiveWorkers);
-            String userData = createWorkerScript();
-            instances = ec2.createEC2Instances(ami, keyName, delta, delta, userData, arn, InstanceType.T2_MICRO);
-        }
-        if (instances != null) {
-            for (Instance instance : instances) {
-                if (!ec2.createTag("Name", "worker", instance.instanceId())) {
-                    generalUtils.logPrint("Error in manager: loadBalance ec2.createTag with instance Id: " + instance.instanceId());
+        }
+    }
+
+    //receive results (10 at a time, with long polling), handle them and acknowledge them with a batched delete.
+    //a message that couldn't be handled isn't deleted, it is received again after its visibility timeout
+    private static void consumeResults(AtomicBoolean consumeResults) {
+        while (consumeResults.get()) {
+            try {
+                List<Message> messages = sqs.getMessages(workersToManagerQueueUrl, SQS_BATCH_SIZE, RESULT_RECEIVE_WAIT_SECONDS);
+                List<Message> handled = new ArrayList<>();
+                for (Message m : messages) {
+                    try {
+                        if (m.body().equals("WORKER_HEARTBEAT")) {
+                            workerRegistry.heartbeat(m);
+                        } else {
+                            handleResultMessage(m);
+                        }
+                        handled.add(m);
+                    } catch (Exception e) {
+                        GeneralUtils.printStackTrace(e, generalUtils);
+                        generalUtils.logPrint("Error in result consumer: handleResultMessage failed, the message will be received again");
+                    }
                 }
+                if (!handled.isEmpty()) {
+                    List<Message> notDeleted = sqs.deleteMessagesBatch(handled, workersToManagerQueueUrl);
+                    if (!notDeleted.isEmpty()) {
+                        //handling a result again is harmless, a url is completed once
+                        generalUtils.logPrint("Error at deleting " + notDeleted.size() + " result messages from workersToManagerQueue");
+                    }
+                }
+            } catch (Exception e) {
+                GeneralUtils.printStackTrace(e, generalUtils);
+                generalUtils.logPrint("Error in result consumer thread, continuing...");
             }
         }
     }
 
+    //handle a result of a worker, the message is deleted by the caller
     private static void handleResultMessage(Message m) {
         Map<String, MessageAttributeValue> attributes = m.messageAttributes();
         String localAppID = attributes.get("LocalAppID").stringValue();
         String url = attributes.get("Url").stringValue();
         String result = m.body();
+        String cacheOptions = jobCacheOptions.get(localAppID);
+        ResultSegmentWriter segments = jobSegments.get(localAppID);
+        if(cacheOptions == null || segments == null){
+            generalUtils.logPrint("Ignoring result of an unknown or completed job: " + localAppID);
+            return;
+        }
+
+        //a worker found a long document, its pages are sent to the workers as sub tasks (through the scheduler)
+        if(result.equals("DOCUMENT_SPLIT")){
+            taskScheduler.taskDone(localAppID, url);
+            fanOutDocument(m);
+            return;
+        }
 
         //check if an exception occurred in worker node
+        boolean failed = false;
         if(result.equals("WORKER EXCEPTION")){
             result = attributes.get("ExceptionSummary").stringValue();
+            failed = true;
             generalUtils.logPrint("Received WORKER EXCEPTION");
         }
 
-        //increment the counter for this url subtask
-        urlCounters.get(localAppID).get(url).incrementAndGet();
+        //the result of a document part, the url is done when all the parts of its document are
+        if(attributes.containsKey("DocumentID")){
+            taskScheduler.taskDone(localAppID, documentPartKey(url, attributes.get("DocumentPart").stringValue()));
+            String text = failed ? failedPartText(attributes, result) : resolveResultText(m, result);
+            addDocumentPart(localAppID, url, attributes, text, failed);
+            return;
+        }
 
-        String uid = GeneralUtils.getUniqueID();
-        uniqueIDToUrlMap.get(localAppID).put(url, uid);
-        if(!s3.putObjectFromMemory(s3BucketName,localAppID+"_result/results/"+uid, result)){
-            generalUtils.logPrint("Error in putting url result to s3: " + url);
+        //a large result was already written to s3 by the worker (in the job's results), only its key is kept.
+        //any other result is appended to a result segment of the job, and added to the shared results cache (so the
+        //next jobs get it without OCR) once its segment is written. a compressed result is stored compressed, the
+        //local app decodes both
+        if(attributes.containsKey(ResultCodec.POINTER_ATTRIBUTE)){
+            completeSubTask(localAppID, url, ResultCodec.resultUid(attributes.get(ResultCodec.POINTER_ATTRIBUTE).stringValue()));
+            return;
+        }
+        byte[] stored;
+        if(attributes.containsKey(ResultCodec.ENCODING_ATTRIBUTE)){
+            stored = ResultCodec.fromBody(result);
+        } else {
+            stored = result.getBytes(StandardCharsets.UTF_8);
         }
-        int new_count = completedSubTasksCounters.get(localAppID).incrementAndGet();
+        storeResult(localAppID, url, stored, failed);
+    }
 
-        //check if now all subtasks of localAppID are done
-        if(new_count == localAppInputSizes.get(localAppID)){
+    //append the result of a url to a result segment of the job (and to the results cache, a failed url for a short time)
+    private static void storeResult(String localAppID, String url, byte[] stored, boolean failed) {
+        String cacheOptions = jobCacheOptions.get(localAppID);
+        ResultSegmentWriter segments = jobSegments.get(localAppID);
+        String ref = cacheOptions == null || segments == null ? null
+                : segments.append(stored, UrlResultCache.cacheKey(url, cacheOptions), failed);
+        if(ref == null){
+            generalUtils.logPrint("Ignoring result of a completed job: " + localAppID);
+        } else {
+            completeSubTask(localAppID, url, ref);
+        }
+    }
+
+    //count a url subtask as done, its result is stored in s3 under uid (of the job's results) or a result reference
+    private static void completeSubTask(String localAppID, String url, String uid) {
+        taskScheduler.taskDone(localAppID, url);
+        Map<String, String> uidToUrl = uniqueIDToUrlMap.get(localAppID);
+        if(uidToUrl == null){
+            return; // the job is already completed
+        }
+        if(uidToUrl.putIfAbsent(url, uid) != null){
+            generalUtils.logPrint("Ignoring another result of an already completed url: " + url);
+            return; // every url is counted once
+        }
+        completedSubTasksCounters.get(localAppID).incrementAndGet();
+        Queue<String> progress = jobProgress.get(localAppID);
+        if(progress != null){
+            progress.add(url);
+        }
+        checkJobCompleted(localAppID);
+    }
+
+    //check if now all subtasks of localAppID are done, the number of subtasks is known once all of them were sent
+    private static void checkJobCompleted(String localAppID) {
+        Integer inputSize = localAppInputSizes.get(localAppID);
+        AtomicInteger completed = completedSubTasksCounters.get(localAppID);
+        if(inputSize == null || completed == null || completed.get() != inputSize){
+            return;
+        }
+        if(completedSubTasksCounters.remove(localAppID) != null){ //delete counter, task is done (only once)
             generalUtils.logPrint("Completing task for local app ID: " + localAppID);
-            completedSubTasksCounters.remove(localAppID); //delete counter, task is done
             localAppInputSizes.remove(localAppID);
             workersNeededPerApp.remove(localAppID);
+            taskScheduler.removeJob(localAppID);
             generalUtils.logPrint("Submitting task result to resultExecutor" + localAppID);
 
             resultExecutor.submit(()-> createSendSummaryFile(localAppID));
         }
+    }
 
-        //delete message from queue
-        List<Message> msgToDelete = new ArrayList<>();
-        msgToDelete.add(m);
-        generalUtils.logPrint("Deleting message from workersToManagerQueueUrl");
-        if(!sqs.deleteMessages(msgToDelete, workersToManagerQueueUrl)){
-            generalUtils.logPrint("Error at deleting task message from workersToManagerQueue");
-            System.exit(1); // Fatal Error
+    //send the pages of a document as sub tasks of PagesPerPart pages, with the attributes (job options) of the original task
+    private static void fanOutDocument(Message m) {
+        Map<String, MessageAttributeValue> attributes = m.messageAttributes();
+        String localAppID = attributes.get("LocalAppID").stringValue();
+        String documentID = attributes.get("DocumentID").stringValue();
+        String url = attributes.get("Url").stringValue();
+        int pageCount = Integer.parseInt(attributes.get("PageCount").stringValue());
+        int pagesPerPart = Integer.parseInt(attributes.get("PagesPerPart").stringValue());
+        int parts = (pageCount + pagesPerPart - 1) / pagesPerPart;
+        if(documentParts.putIfAbsent(documentID, new DocumentParts(parts)) != null){
+            return; // already fanned out
+        }
+        generalUtils.logPrint("Fanning out document of " + pageCount + " pages in " + parts + " sub tasks: " + url);
+        List<TaskScheduler.Task> tasks = new ArrayList<>();
+        for(int part = 0; part < parts; part++){
+            HashMap<String, MessageAttributeValue> attributesMap = new HashMap<>(attributes);
+            attributesMap.remove("PageCount");
+            attributesMap.remove("PagesPerPart");
+            attributesMap.put("From", MessageAttributeValue.builder().dataType("String").stringValue("Manager").build());
+            attributesMap.put("To", MessageAttributeValue.builder().dataType("String").stringValue("Worker").build());
+            attributesMap.put("DocumentPart", MessageAttributeValue.builder().dataType("Number").stringValue(Integer.toString(part)).build());
+            int start = part * pagesPerPart;
+            attributesMap.put("PageRange", MessageAttributeValue.builder().dataType("String")
+                    .stringValue(start + "-" + Math.min(start + pagesPerPart, pageCount)).build());
+            tasks.add(new TaskScheduler.Task(documentPartKey(url, Integer.toString(part)), url, attributesMap));
         }
+        //the parts go through the scheduler with the job's other tasks, ahead of them since the document already started
+        if(!taskScheduler.submitFirst(localAppID, tasks)){
+            documentParts.remove(documentID);
+            generalUtils.logPrint("Ignoring document of an unknown or completed job: " + localAppID);
+        }
+    }
+
+    //the key of a document part task in the scheduler
+    private static String documentPartKey(String url, String part) {
+        return url + "#part" + part;
+    }
+
+    //the text of a part that failed, in place of its pages in the document text
+    private static String failedPartText(Map<String, MessageAttributeValue> attributes, String summary) {
+        String[] range = attributes.get("PageRange").stringValue().split("-");
+        int firstPage = Integer.parseInt(range[0]) + 1;
+        return "[pages " + firstPage + "-" + range[1] + " failed: " + summary + "]\n";
+    }
+    //keep the text of a document part, once all the parts arrived the text of the whole document (in page order) is
+    //stored as the result of its url, as a failed result if any part failed
+    private static void addDocumentPart(String localAppID, String url, Map<String, MessageAttributeValue> attributes, String text, boolean failed) {
+        String documentID = attributes.get("DocumentID").stringValue();
+        int part = Integer.parseInt(attributes.get("DocumentPart").stringValue());
+        DocumentParts parts = documentParts.get(documentID);
+        if(parts == null){
+            generalUtils.logPrint("Ignoring part of an unknown or completed document: " + documentID);
+            return;
+        }
+        if(!parts.add(part, text, failed) || documentParts.remove(documentID) == null){
+            return; // more parts to come, or completed by another thread
+        }
+        storeResult(localAppID, url, ResultCodec.compress(parts.getText()), parts.isFailed());
+    }
+    //the plain text of a result, whether it was sent as is, compressed, or written to s3 by the worker
+    private static String resolveResultText(Message m, String result) {
+        Map<String, MessageAttributeValue> attributes = m.messageAttributes();
+        try {
+            if(attributes.containsKey(ResultCodec.POINTER_ATTRIBUTE)){
+                String key = attributes.get(ResultCodec.POINTER_ATTRIBUTE).stringValue();
+                byte[] object = s3.getObjectBytes(s3BucketName, key);
+                s3.deleteObject(s3BucketName, key); // the part is stored again as part of the document
+                return object == null ? "" : ResultCodec.decodeObject(object);
+            }
+            if(attributes.containsKey(ResultCodec.ENCODING_ATTRIBUTE)){
+                return ResultCodec.decompress(ResultCodec.fromBody(result));
+            }
+        } catch (IOException e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            return "";
+        }
+        return result;
     }
 
     //Create summary file and send to the local application
@@ -248,6 +551,12 @@ public class Manager {
     //A counter hashmap that holds a counter for every url subtask (for taking care of duplicates)
     //A hashmap that translates uniqueId values to urls. We will use this hashmap upon creating the html file
     private static void createSendSummaryFile(String localAppID) {
+        jobProgress.remove(localAppID); // the summary has all the results
+        //write the rest of the job's results before the local app reads them
+        ResultSegmentWriter segments = jobSegments.get(localAppID);
+        if(!segments.close()){
+            generalUtils.logPrint("Error in createSendSummaryFile: writing result segments of " + localAppID);
+        }
         FileWriter fStream;
         try {
             fStream = new FileWriter(localAppID+"_result.txt");
@@ -286,12 +595,84 @@ public class Manager {
         urlCounters.remove(localAppID); //delete url counters map
         managerToLocalQueues.remove(localAppID); //delete queue url from map
         uniqueIDToUrlMap.remove(localAppID); //delete uniqueIdToUrl map
+        jobCacheOptions.remove(localAppID);
+        //the local app reads the results now, objects no one else uses are deleted after a grace period
+        segments.release();
+        for(String ref : jobCachedResults.remove(localAppID)){
+            resultCache.release(ref);
+        }
+        jobSegments.remove(localAppID);
         //delete temporary file from memory
         if(!new File(localAppID+"_result.txt").delete()){
             generalUtils.logPrint("Error in createSendSummaryFile: summary file deletion");
         }
     }
 
+    //send the results completed since the last progress message to the local app of an incremental job, in the format of
+    //the summary file (url counters and result references). the segment of the job is completed first, so the local app
+    //can read the results right away. a progress message that can't be sent is skipped, the summary has all the results
+    private static void publishProgress(String localAppID) {
+        Queue<String> progress = jobProgress.get(localAppID);
+        ResultSegmentWriter segments = jobSegments.get(localAppID);
+        Map<String, String> uidToUrl = uniqueIDToUrlMap.get(localAppID);
+        Map<String, AtomicInteger> counters = urlCounters.get(localAppID);
+        String queueUrl = managerToLocalQueues.get(localAppID);
+        if(progress == null || segments == null || uidToUrl == null || counters == null || queueUrl == null || progress.isEmpty()){
+            return;
+        }
+        List<String> urls = new ArrayList<>();
+        for(String url = progress.poll(); url != null; url = progress.poll()){
+            urls.add(url);
+        }
+        if(!segments.flush(PROGRESS_MAX_DELAY_MS)){
+            generalUtils.logPrint("Error in publishProgress: writing result segments of " + localAppID);
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        Map<String, String> refs = new HashMap<>();
+        int size = 0;
+        for(String url : urls){
+            String ref = uidToUrl.get(url);
+            AtomicInteger count = counters.get(url);
+            if(ref == null || count == null){
+                continue;
+            }
+            if(segments.isPending(ref)){
+                progress.add(url); // sent once its segment is written
+                continue;
+            }
+            counts.put(url, count.get());
+            refs.put(url, ref);
+            size += 2 * url.length() + ref.length() + 16;
+            if(size >= PROGRESS_MAX_MESSAGE_CHARS){
+                sendProgress(localAppID, queueUrl, counts, refs);
+                counts = new HashMap<>();
+                refs = new HashMap<>();
+                size = 0;
+            }
+        }
+        if(!refs.isEmpty()){
+            sendProgress(localAppID, queueUrl, counts, refs);
+        }
+    }
+
+    private static void sendProgress(String localAppID, String queueUrl, Map<String, Integer> counts, Map<String, String> refs) {
+        AtomicInteger completed = completedSubTasksCounters.get(localAppID);
+        Integer total = localAppInputSizes.get(localAppID);
+        HashMap<String, MessageAttributeValue> attributesMap = new HashMap<>();
+        attributesMap.put("From", MessageAttributeValue.builder().dataType("String").stringValue("Manager").build());
+        attributesMap.put("To", MessageAttributeValue.builder().dataType("String").stringValue("LocalApp").build());
+        attributesMap.put("Type", MessageAttributeValue.builder().dataType("String").stringValue("Progress").build());
+        attributesMap.put("Completed", MessageAttributeValue.builder().dataType("Number")
+                .stringValue(Integer.toString(completed == null ? 0 : completed.get())).build());
+        //the number of subtasks is known once the whole input was read
+        attributesMap.put("Total", MessageAttributeValue.builder().dataType("Number")
+                .stringValue(Integer.toString(total == null ? -1 : total)).build());
+        String body = JacksonUtils.toJsonString(counts) + "\n" + JacksonUtils.toJsonString(refs);
+        if(!sqs.sendMessage(queueUrl, body, attributesMap, 0)){
+            generalUtils.logPrint("Error in publishProgress: sqs.sendMessage, " + refs.size() + " results are sent with the summary");
+        }
+    }
+
     private static void handleMessage(List<Message> messages,AtomicBoolean shouldRun) {
         if(!messages.isEmpty()){
             Message message = messages.get(0);
@@ -323,23 +704,78 @@ public class Manager {
         }
     }
 
+    //stream the input file from s3 and send its url tasks in chunks while it is read, so the first tasks are sent
+    //right away and the input is never held in memory. workers are added as the number of read urls grows
     private static void distributeTasks(int n, List<Message> messages, String localAppID) {
-        String inputFilePath = localAppID +"_input.txt";
-        if(!s3.getObject(s3BucketName, localAppID, inputFilePath)) { // body is the key in s3
+        InputStream input = s3.getObjectStream(s3BucketName, localAppID); // body is the key in s3
+        if(input == null) {
             generalUtils.logPrint("Error downloading input file from s3");
             return;
         }
-        List<String> urlList = parseInputFile(inputFilePath);
-        //filter any unwanted strings
-        urlList = urlList.stream().filter(url-> !(url.equals("") || url.equals("\n"))).collect(Collectors.toList());
-
-        generalUtils.logPrint("Distributing " + urlList.size() + " subtasks to workers queue");
-
-        //check there is a sufficient number of workers
-        loadBalance(n, urlList.size(), localAppID);
+        Message message = messages.get(0);
+        Map<String, MessageAttributeValue> attributesMap = getTaskAttributes(localAppID, getTaskOptions(message));
+        String cacheOptions = getCacheOptions(message);
+        startJob(localAppID, cacheOptions, getJobWeight(message), attributesMap);
+        MessageAttributeValue incremental = message.messageAttributes().get("Incremental");
+        if(incremental != null && Boolean.parseBoolean(incremental.stringValue())){
+            jobProgress.put(localAppID, new ConcurrentLinkedQueue<>());
+        }
+        int numOfLines = 0;
+        int numOfTasks = 0;
+        int numOfSentTasks = 0;
+        int workersNeeded = 0;
+        long visibilityExtendedAt = System.currentTimeMillis();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            List<String> chunk = new ArrayList<>();
+            String line;
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                line = reader.readLine();
+                endOfInput = line == null;
+                //filter any unwanted strings
+                if(!endOfInput && !line.trim().isEmpty()){
+                    chunk.add(line);
+                }
+                if(chunk.size() < INGEST_CHUNK_SIZE && !endOfInput){
+                    continue;
+                }
+                numOfLines += chunk.size();
+                //repeated urls are only counted, a url is sent once
+                List<String> newUrls = countUrls(localAppID, chunk);
+                numOfTasks += newUrls.size();
+                //urls with a cached result are completed right away, only the others are sent
+                List<String> urlsToSend = completeCachedUrls(localAppID, cacheOptions, newUrls);
+                numOfSentTasks += urlsToSend.size();
+                //check there is a sufficient number of workers for the urls sent so far
+                int needed = Math.min((numOfSentTasks + n - 1) / n, MAX_INSTANCES);
+                if(needed > workersNeeded){
+                    workersNeeded = needed;
+                    loadBalance(n, numOfSentTasks, localAppID);
+                }
+                //queue the url tasks for the scheduler, reading the input waits while the job has enough pending tasks
+                while(!taskScheduler.submit(localAppID, urlsToSend, JOB_VISIBILITY_EXTEND_MS)){
+                    sqs.changeVisibility(localToManagerQueueUrl, Integer.parseInt(GeneralUtils.VISIBILITY), message.receiptHandle());
+                    visibilityExtendedAt = System.currentTimeMillis();
+                }
+                chunk = new ArrayList<>();
+                //keep the job message invisible to the other listeners while the input is read
+                if(System.currentTimeMillis() - visibilityExtendedAt > JOB_VISIBILITY_EXTEND_MS){
+                    sqs.changeVisibility(localToManagerQueueUrl, Integer.parseInt(GeneralUtils.VISIBILITY), message.receiptHandle());
+                    visibilityExtendedAt = System.currentTimeMillis();
+                }
+            }
+        } catch (IOException e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            generalUtils.logPrint("Error reading input file from s3, the job ends after " + numOfTasks + " subtasks");
+        } catch (InterruptedException e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            Thread.currentThread().interrupt();
+            return; // the manager is terminating
+        }
+        generalUtils.logPrint("Distributed " + numOfSentTasks + " subtasks to workers queue, " + (numOfTasks - numOfSentTasks)
+                + " cached (" + numOfLines + " urls in the input)");
+        finishJob(localAppID, numOfTasks);
 
-        //send url tasks to workers
-        sendTasks(localAppID, urlList);
         //delete task message from queue (we just sent all subtasks to the workers)
         if(!sqs.deleteMessages(messages, localToManagerQueueUrl)){
             generalUtils.logPrint("Error at deleting task message from localToManagerQueue");
@@ -347,66 +783,173 @@ public class Manager {
         }
     }
 
-    //sends url tasks to workers
-    private static void sendTasks(String localAppID, List<String> urlList) {
-        Map<String, AtomicInteger> subTasksCounters = new ConcurrentHashMap<>();
-        Map<String, String> uidToUrlMap = new ConcurrentHashMap<>();
+    //job attributes to forward to the workers with every task of the job
+    private static Map<String, MessageAttributeValue> getTaskOptions(Message message) {
+        Map<String, MessageAttributeValue> taskOptions = new HashMap<>();
+        for (String name : FORWARDED_TASK_ATTRIBUTES) {
+            MessageAttributeValue value = message.messageAttributes().get(name);
+            if (value != null) {
+                taskOptions.put(name, value);
+            }
+        }
+        return taskOptions;
+    }
+
+    //the job options that are part of the results cache key, in a fixed order
+    private static String getCacheOptions(Message message) {
+        StringBuilder options = new StringBuilder();
+        for (String name : RESULT_CACHE_ATTRIBUTES) {
+            MessageAttributeValue value = message.messageAttributes().get(name);
+            if (value != null) {
+                options.append(name).append('=').append(value.stringValue()).append(';');
+            }
+        }
+        return options.toString();
+    }
+
+    //the weight of the job in the scheduler, from the Weight attribute of the local app
+    private static int getJobWeight(Message message) {
+        MessageAttributeValue value = message.messageAttributes().get("Weight");
+        if (value == null) {
+            return 1;
+        }
+        try {
+            return Math.min(Math.max(Integer.parseInt(value.stringValue()), 1), MAX_JOB_WEIGHT);
+        } catch (NumberFormatException e) {
+            generalUtils.logPrint("Ignoring invalid job weight: " + value.stringValue());
+            return 1;
+        }
+    }
+
+    //register the maps of a new job, before the first task is sent (results may arrive while the input is still read)
+    private static void startJob(String localAppID, String cacheOptions, int weight, Map<String, MessageAttributeValue> attributesMap) {
+        taskScheduler.addJob(localAppID, weight, attributesMap);
+        jobCacheOptions.put(localAppID, cacheOptions);
+        jobSegments.put(localAppID, new ResultSegmentWriter(s3, s3BucketName, resultCache, uploadExecutor,
+                RESULT_SEGMENT_PART_BYTES, RESULT_SEGMENT_MAX_BYTES, generalUtils));
+        jobCachedResults.put(localAppID, Collections.synchronizedList(new ArrayList<>()));
+        urlCounters.put(localAppID, new ConcurrentHashMap<>()); // we add a new results hashmap of LocalAppID
+        uniqueIDToUrlMap.put(localAppID, new ConcurrentHashMap<>());
         completedSubTasksCounters.put(localAppID, new AtomicInteger(0)); //so far there are 0 completed subtasks(urls) of localAppID
-        localAppInputSizes.put(localAppID, urlList.size());
+    }
+
+    //all the tasks of the job were sent, the job is done when numOfTasks subtasks (unique urls) are completed
+    private static void finishJob(String localAppID, int numOfTasks) {
+        localAppInputSizes.put(localAppID, numOfTasks);
+        checkJobCompleted(localAppID); // all results may have arrived already
+    }
+
+    //the attributes are the same for all the tasks of the job
+    private static Map<String, MessageAttributeValue> getTaskAttributes(String localAppID, Map<String, MessageAttributeValue> taskOptions) {
+        HashMap<String, MessageAttributeValue> attributesMap = new HashMap<>();
+        attributesMap.put("From", MessageAttributeValue.builder().dataType("String").stringValue("Manager").build());
+        attributesMap.put("To", MessageAttributeValue.builder().dataType("String").stringValue("Worker").build());
+        attributesMap.put("LocalAppID", MessageAttributeValue.builder().dataType("String").stringValue(localAppID).build());
+        attributesMap.putAll(taskOptions);
+        return attributesMap;
+    }
+
+    //count the occurrences of the urls in the job, returns the urls seen for the first time (to be sent to the workers)
+    private static List<String> countUrls(String localAppID, List<String> urlList) {
+        Map<String, AtomicInteger> subTasksCounters = urlCounters.get(localAppID);
+        List<String> newUrls = new ArrayList<>();
         for (String url: urlList) {
-            subTasksCounters.put(url, new AtomicInteger(0));
-            HashMap<String, MessageAttributeValue> attributesMap = new HashMap<>();
-            attributesMap.put("From", MessageAttributeValue.builder().dataType("String").stringValue("Manager").build());
-            attributesMap.put("To", MessageAttributeValue.builder().dataType("String").stringValue("Worker").build());
-            attributesMap.put("LocalAppID", MessageAttributeValue.builder().dataType("String").stringValue(localAppID).build());
-            if(!sqs.sendMessage(managerToWorkersQueueUrl, url, attributesMap)) {
-                generalUtils.logPrint("Error at sending task message to worker");
-                System.exit(1); // Fatal Error
+            AtomicInteger counter = subTasksCounters.putIfAbsent(url, new AtomicInteger(1));
+            if (counter == null) {
+                newUrls.add(url);
+            } else {
+                counter.incrementAndGet();
             }
         }
-        urlCounters.put(localAppID, subTasksCounters); // we add a new results hashmap of LocalAppID
-        uniqueIDToUrlMap.put(localAppID, uidToUrlMap);
+        return newUrls;
     }
 
-    //checks if there are enough workers running, if not creates them
-    private static void loadBalance(int n, int sizeOfCurrentInput, String localAppID) {
-        int numOfWorkersNeeded;
-        int delta;
-        List<Instance> instances;
-        numOfWorkersNeeded = sizeOfCurrentInput % n == 0 ? sizeOfCurrentInput / n : (sizeOfCurrentInput / n) + 1;
-        numOfWorkersNeeded = Math.min(numOfWorkersNeeded, MAX_INSTANCES);
-        workersNeededPerApp.put(localAppID, numOfWorkersNeeded);
-
-        Filter filter = Filter.builder()
-                .name("instance-state-name")
-                .values("running","pending")
-                .build();
-        synchronized (lock) {
-            numOfActiveWorkers = ec2.getNumberOfWorkerInstances(filter);
+    //complete the urls that have a result in the results cache, returns the urls that have to be OCR'd
+    private static List<String> completeCachedUrls(String localAppID, String cacheOptions, List<String> urls) {
+        List<String> urlsToSend = new ArrayList<>();
+        for (String url : urls) {
+            String resultKey = resultCache.get(UrlResultCache.cacheKey(url, cacheOptions));
+            if (resultKey == null) {
+                urlsToSend.add(url);
+            } else {
+                jobCachedResults.get(localAppID).add(resultKey);
+                completeSubTask(localAppID, url, resultKey);
+            }
+        }
+        return urlsToSend;
+    }
 
-            if(numOfWorkersNeeded <= numOfActiveWorkers){
-                generalUtils.logPrint("In loadBalance: No extra workers needed. currently #" + numOfActiveWorkers );
-                return;
+    //send a batch of url tasks, entries that failed are sent again with backoff.
+    //a task that can't be sent at all is completed with an error result, so the job can still complete
+    private static void sendTaskBatch(String localAppID, List<TaskScheduler.Task> tasks) {
+        List<TaskScheduler.Task> pending = tasks;
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            List<String> bodies = new ArrayList<>();
+            List<Map<String, MessageAttributeValue>> attributes = new ArrayList<>();
+            for (TaskScheduler.Task task : pending) {
+                bodies.add(task.url);
+                attributes.add(task.attributes);
             }
-            delta = numOfWorkersNeeded - numOfActiveWorkers;
-            generalUtils.logPrint("In loadBalance: " + delta + " more workers needed. currently (before) #" + numOfActiveWorkers );
-            String userData = createWorkerScript();
-            instances = ec2.createEC2Instances(ami, keyName, delta, delta, userData, arn, InstanceType.T2_MICRO);
-        }
-        if(instances != null){
-            for (Instance instance : instances) {
-                if(!ec2.createTag("Name", "worker", instance.instanceId())){
-                    generalUtils.logPrint("Error in manager: loadBalance ec2.createTag with instance Id: " + instance.instanceId());
-                }
+            List<Integer> failed = sqs.sendMessageBatch(managerToWorkersQueueUrl, bodies, attributes);
+            List<TaskScheduler.Task> failedTasks = new ArrayList<>();
+            for (int index : failed) {
+                failedTasks.add(pending.get(index));
+            }
+            pending = failedTasks;
+            if (pending.isEmpty() || attempt >= DISPATCH_RETRIES) {
+                break;
+            }
+            generalUtils.logPrint("Retrying " + pending.size() + " task messages of " + localAppID);
+            try {
+                Thread.sleep(DISPATCH_BACKOFF_MS * (1L << attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (TaskScheduler.Task task : pending) {
+            generalUtils.logPrint("Error at sending task message to worker, URL: " + task.url);
+            taskScheduler.taskDone(localAppID, task.key);
+            if (task.attributes.containsKey("DocumentID")) {
+                addDocumentPart(localAppID, task.url, task.attributes, failedPartText(task.attributes, "Task dispatch error"), true);
+                continue;
+            }
+            String ref = jobSegments.get(localAppID).append("Task dispatch error".getBytes(StandardCharsets.UTF_8), null, false);
+            if(ref != null){
+                completeSubTask(localAppID, task.url, ref);
+            }
+        }
+    }
+    //the job asks for a worker per n subtasks, the fleet is scaled soon for the subtasks sent so far.
+    //the autoscaler runs on the load balance thread, so reading the input never waits for ec2 or sqs
+    private static void loadBalance(int n, int sizeOfCurrentInput, String localAppID) {
+        int numOfWorkersNeeded = sizeOfCurrentInput % n == 0 ? sizeOfCurrentInput / n : (sizeOfCurrentInput / n) + 1;
+        Integer previous = workersNeededPerApp.put(localAppID, Math.min(numOfWorkersNeeded, MAX_INSTANCES));
+        if (previous != null && previous >= Math.min(numOfWorkersNeeded, MAX_INSTANCES)) {
+            return; // the job doesn't ask for more workers
+        }
+        if (workerBalanceRequested.compareAndSet(false, true)) {
+            try {
+                loadBalanceExecutor.execute(() -> {
+                    workerBalanceRequested.set(false);
+                    try {
+                        checkWorkerBalance();
+                    } catch (Exception e) {
+                        GeneralUtils.printStackTrace(e, generalUtils);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                workerBalanceRequested.set(false); // the manager is terminating
             }
         }
-        generalUtils.logPrint("In loadBalance: " + delta + " more workers needed. currently (after) #" + numOfWorkersNeeded );
     }
 
     private static void terminateSequence() {
-        //delete s3 bucket
+        //delete s3 bucket, or keep the results cache for the next manager
         if(shouldDeleteS3){
             s3.deleteBucket(s3BucketName);
+        } else {
+            resultCache.save();
         }
         //delete all existing sqs queues
         terminateSqs();
@@ -459,21 +1002,10 @@ public class Manager {
         }
     }
 
-    //auxiliary function for reading input files
-    private static List<String> parseInputFile(String inputFilePath) {
-        try {
-            return Files.readAllLines(Paths.get(inputFilePath), StandardCharsets.UTF_8);
-        }
-        catch (IOException e) {
-            generalUtils.logPrint(Arrays.toString(e.getStackTrace()));
-            return Collections.emptyList();
-        }
-    }
-
     private static String createWorkerScript() {
         String userData = "";
         userData = userData + "#!/bin/bash\n";
-        userData += String.format("sudo java -jar /jars/worker.jar %s %s", managerToWorkersQueueUrl, workersToManagerQueueUrl);
+        userData += String.format("sudo java -jar /jars/worker.jar %s %s resultBucket=%s", managerToWorkersQueueUrl, workersToManagerQueueUrl, s3BucketName);
 
         return GeneralUtils.toBase64(userData);
     }
@@ -0,0 +1,194 @@
+package com.dsp.manager;
+
+import com.dsp.aws.S3client;
+import com.dsp.utils.GeneralUtils;
+import com.dsp.utils.ResultCodec;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+//writes the results of a job into a few large segment objects, instead of an object per url.
+//results are appended to the current segment, which is uploaded in parts (multipart upload) as they fill up, a new
+//segment is started once it reaches maxSegmentBytes. the parts are uploaded by the upload executor, so appending a
+//result never waits for s3 (except when a segment is completed). a result is referenced by its range in its segment
+//(ResultCodec.rangeRef), which can be read once the segment is completed.
+//the results of a completed segment are added to the results cache, the segment is retained in the cache for the job
+//until the job releases it
+public class ResultSegmentWriter {
+
+    private final S3client s3;
+    private final String bucketName;
+    private final UrlResultCache resultCache;
+    private final ExecutorService uploadExecutor;
+    private final int partSize;
+    private final long maxSegmentBytes;
+    private final GeneralUtils generalUtils;
+    //completed segments
+    private final List<String> segmentKeys;
+    private String segmentKey;
+    private long segmentSize;
+    private long segmentStartedAt;
+    //null until the first part of the segment is uploaded, a small segment is written with a single put
+    private String uploadId;
+    private List<Future<CompletedPart>> partUploads;
+    private final ByteArrayOutputStream buffer;
+    //results of the current segment to add to the cache when it is completed
+    private List<String[]> cacheEntries;
+    private boolean failed;
+    private boolean closed;
+
+    //partSize is at least 5MB, the minimum part of a multipart upload
+    public ResultSegmentWriter(S3client s3, String bucketName, UrlResultCache resultCache, ExecutorService uploadExecutor,
+                               int partSize, long maxSegmentBytes, GeneralUtils generalUtils) {
+        this.s3 = s3;
+        this.bucketName = bucketName;
+        this.resultCache = resultCache;
+        this.uploadExecutor = uploadExecutor;
+        this.partSize = partSize;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.generalUtils = generalUtils;
+        segmentKeys = new ArrayList<>();
+        buffer = new ByteArrayOutputStream(partSize);
+        failed = false;
+        closed = false;
+    }
+
+    //append a stored result (plain text or compressed), returns its reference. cacheKey is the url's key in the results
+    //cache, null if the result isn't cached. a negative result is a failed url. returns null once the writer is closed
+    public synchronized String append(byte[] result, String cacheKey, boolean negative) {
+        if (closed) {
+            return null;
+        }
+        if (segmentKey == null) {
+            segmentKey = UrlResultCache.PREFIX + "segments/" + GeneralUtils.getUniqueID();
+            segmentSize = 0;
+            segmentStartedAt = System.currentTimeMillis();
+            uploadId = null;
+            partUploads = new ArrayList<>();
+            cacheEntries = new ArrayList<>();
+        }
+        String ref = ResultCodec.rangeRef(segmentKey, segmentSize, result.length);
+        buffer.write(result, 0, result.length);
+        segmentSize += result.length;
+        if (cacheKey != null) {
+            cacheEntries.add(new String[]{cacheKey, ref, Boolean.toString(negative)});
+        }
+        if (buffer.size() >= partSize) {
+            uploadBuffer(); // if the upload can't start the buffer is kept and uploaded with the next part
+        }
+        if (segmentSize >= maxSegmentBytes) {
+            completeSegment();
+        }
+        return ref;
+    }
+
+    private boolean uploadBuffer() {
+        if (uploadId == null) {
+            uploadId = s3.createMultipartUpload(bucketName, segmentKey);
+            if (uploadId == null) {
+                return false;
+            }
+        }
+        String key = segmentKey;
+        String id = uploadId;
+        int partNumber = partUploads.size() + 1;
+        byte[] part = buffer.toByteArray();
+        partUploads.add(uploadExecutor.submit(() -> uploadPart(key, id, partNumber, part)));
+        buffer.reset();
+        return true;
+    }
+
+    //a part that failed is uploaded again once
+    private CompletedPart uploadPart(String key, String id, int partNumber, byte[] part) {
+        CompletedPart completedPart = s3.uploadPart(bucketName, key, id, partNumber, part);
+        return completedPart != null ? completedPart : s3.uploadPart(bucketName, key, id, partNumber, part);
+    }
+
+    //wait for the uploads of the parts of the segment, null if a part couldn't be uploaded
+    private List<CompletedPart> waitForParts() {
+        List<CompletedPart> parts = new ArrayList<>();
+        try {
+            for (Future<CompletedPart> partUpload : partUploads) {
+                CompletedPart part = partUpload.get();
+                if (part == null) {
+                    return null;
+                }
+                parts.add(part);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            return null;
+        }
+        return parts;
+    }
+
+    //write the rest of the segment and complete it, then add its results to the cache
+    private void completeSegment() {
+        boolean completed;
+        if (uploadId == null) {
+            completed = s3.putObjectBytes(bucketName, segmentKey, buffer.toByteArray());
+        } else {
+            List<CompletedPart> parts = buffer.size() == 0 || uploadBuffer() ? waitForParts() : null;
+            completed = parts != null && s3.completeMultipartUpload(bucketName, segmentKey, uploadId, parts);
+            if (!completed) {
+                s3.abortMultipartUpload(bucketName, segmentKey, uploadId);
+            }
+        }
+        if (completed) {
+            segmentKeys.add(segmentKey);
+            resultCache.retain(segmentKey);
+            for (String[] entry : cacheEntries) {
+                resultCache.putIfAbsent(entry[0], entry[1], Boolean.parseBoolean(entry[2]));
+            }
+            generalUtils.logPrint("Completed result segment " + segmentKey + " of " + segmentSize + " bytes");
+        } else {
+            failed = true;
+            generalUtils.logPrint("Error in writing result segment " + segmentKey);
+        }
+        segmentKey = null;
+        buffer.reset();
+        cacheEntries = null;
+    }
+
+    //complete the current segment early, so the results appended so far can be read, once it holds at least a part or
+    //its first result waited maxDelayMs. a segment isn't completed for every few results, so a slow job doesn't end up
+    //with many small segments (and cache entries), and a job's results wait at most maxDelayMs to be readable.
+    //the next result starts a new segment. returns false if a segment of the job couldn't be written
+    public synchronized boolean flush(long maxDelayMs) {
+        if (!closed && segmentKey != null
+                && (segmentSize >= partSize || System.currentTimeMillis() - segmentStartedAt >= maxDelayMs)) {
+            completeSegment();
+        }
+        return !failed;
+    }
+
+    //whether the result of a reference is in the current segment, which can't be read until it is completed
+    public synchronized boolean isPending(String ref) {
+        return segmentKey != null && segmentKey.equals(ResultCodec.refObjectKey(ref));
+    }
+
+    //complete the current segment, returns false if a segment of the job couldn't be written
+    public synchronized boolean close() {
+        closed = true;
+        if (segmentKey != null) {
+            completeSegment();
+        }
+        return !failed;
+    }
+
+    //release the segments of the job in the results cache, once its summary was sent to the local app
+    public synchronized void release() {
+        for (String key : segmentKeys) {
+            resultCache.release(key);
+        }
+        segmentKeys.clear();
+    }
+}
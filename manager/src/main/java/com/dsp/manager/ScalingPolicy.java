@@ -0,0 +1,11 @@
+package com.dsp.manager;
+
+//decides how many workers the pending tasks need, the AutoScaler applies the decision with its limits, hysteresis and
+//cooldowns. implement it to change how the fleet is sized
+public interface ScalingPolicy {
+
+    //backlog - task messages in the workers queue (waiting or in flight) and tasks the scheduler didn't release yet
+    //workerRate - measured tasks completed per second by a single worker
+    //currentWorkers - running and pending workers
+    int desiredWorkers(int backlog, double workerRate, int currentWorkers);
+}
@@ -0,0 +1,207 @@
+package com.dsp.manager;
+
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//releases the url tasks of the jobs to the workers queue fairly. every job has its own queue of pending tasks, and the
+//jobs with pending tasks take turns in weighted round robin: in its turn a job releases up to its weight batches.
+//the tasks released and not completed yet (in flight) are limited by a window of a few tasks per OCR slot of the
+//workers, so the workers queue stays short and the tasks of a small job don't wait behind all the tasks of a bulk job.
+//the pending tasks of a job are bounded too, the job's input is read only as fast as its tasks are released
+public class TaskScheduler {
+
+    //a task message: key identifies the task in its job (the url, or the url and part of a document part)
+    public static class Task {
+        public final String key;
+        public final String url;
+        public final Map<String, MessageAttributeValue> attributes;
+
+        public Task(String key, String url, Map<String, MessageAttributeValue> attributes) {
+            this.key = key;
+            this.url = url;
+            this.attributes = attributes;
+        }
+    }
+
+    //tasks of a job released together, sent to the workers queue in a single batch request
+    public static class Batch {
+        public final String localAppID;
+        public final List<Task> tasks;
+
+        Batch(String localAppID, List<Task> tasks) {
+            this.localAppID = localAppID;
+            this.tasks = tasks;
+        }
+    }
+
+    private static class JobQueue {
+        final String localAppID;
+        final int weight;
+        final Map<String, MessageAttributeValue> attributes;
+        final ArrayDeque<Task> pending;
+        final Set<String> inFlight;
+        //batches the job may still release in its current turn
+        int credit;
+
+        JobQueue(String localAppID, int weight, Map<String, MessageAttributeValue> attributes) {
+            this.localAppID = localAppID;
+            this.weight = weight;
+            this.attributes = attributes;
+            pending = new ArrayDeque<>();
+            inFlight = new HashSet<>();
+        }
+    }
+
+    private final int batchSize;
+    private final int maxPendingPerJob;
+    private final int minWindow;
+    private final int maxWindow;
+    private final int windowPerSlot;
+    private final WorkerRegistry registry;
+    private final Map<String, JobQueue> jobs;
+    //jobs with pending tasks, in round robin order, the first is the job in its turn
+    private final ArrayDeque<JobQueue> active;
+    private int pendingTasks;
+    private int inFlightTasks;
+
+    public TaskScheduler(int batchSize, int maxPendingPerJob, int minWindow, int maxWindow, int windowPerSlot, WorkerRegistry registry) {
+        this.batchSize = batchSize;
+        this.maxPendingPerJob = maxPendingPerJob;
+        this.minWindow = minWindow;
+        this.maxWindow = maxWindow;
+        this.windowPerSlot = windowPerSlot;
+        this.registry = registry;
+        jobs = new HashMap<>();
+        active = new ArrayDeque<>();
+    }
+
+    //register a job, weight is the number of batches it releases in its turn
+    public synchronized void addJob(String localAppID, int weight, Map<String, MessageAttributeValue> attributes) {
+        jobs.put(localAppID, new JobQueue(localAppID, Math.max(weight, 1), attributes));
+    }
+
+    //queue url tasks of a job (with the job's attributes). waits up to timeoutMs while the job has too many pending
+    //tasks, returns false if the tasks weren't queued (the caller tries again), or if the job is unknown
+    public synchronized boolean submit(String localAppID, List<String> urls, long timeoutMs) throws InterruptedException {
+        JobQueue job = jobs.get(localAppID);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (job != null && job.pending.size() >= maxPendingPerJob) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+            job = jobs.get(localAppID);
+        }
+        if (job == null) {
+            return false;
+        }
+        if (urls.isEmpty()) {
+            return true;
+        }
+        if (job.pending.isEmpty()) {
+            active.addLast(job);
+        }
+        for (String url : urls) {
+            job.pending.addLast(new Task(url, url, job.attributes));
+        }
+        pendingTasks += urls.size();
+        notifyAll();
+        return true;
+    }
+
+    //queue tasks that continue work the job already started (the parts of a document), ahead of the job's other
+    //pending tasks and regardless of their bound. returns false if the job is unknown
+    public synchronized boolean submitFirst(String localAppID, List<Task> tasks) {
+        JobQueue job = jobs.get(localAppID);
+        if (job == null) {
+            return false;
+        }
+        if (tasks.isEmpty()) {
+            return true;
+        }
+        if (job.pending.isEmpty()) {
+            active.addLast(job);
+        }
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            job.pending.addFirst(tasks.get(i));
+        }
+        pendingTasks += tasks.size();
+        notifyAll();
+        return true;
+    }
+
+    //the next batch to send to the workers queue, waits up to timeoutMs for pending tasks and room in the window for a
+    //whole batch. returns null if there is no batch to send yet
+    public synchronized Batch nextBatch(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (active.isEmpty() || inFlightTasks + batchSize > window()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            //the window also grows when workers join, check it again from time to time
+            wait(Math.min(remaining, 1_000));
+        }
+        JobQueue job = active.peekFirst();
+        if (job.credit <= 0) {
+            job.credit = job.weight; // the job's turn starts
+        }
+        int size = Math.min(batchSize, job.pending.size());
+        List<Task> tasks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Task task = job.pending.pollFirst();
+            tasks.add(task);
+            job.inFlight.add(task.key);
+        }
+        pendingTasks -= size;
+        inFlightTasks += size;
+        job.credit--;
+        if (job.pending.isEmpty()) {
+            active.pollFirst();
+            job.credit = 0;
+        } else if (job.credit == 0) {
+            active.addLast(active.pollFirst()); // the next job's turn
+        }
+        notifyAll(); // the job may accept more tasks
+        return new Batch(job.localAppID, tasks);
+    }
+
+    //a task of the job got its result (or can't be sent), its place in the window is released.
+    //tasks that were never released by the scheduler are ignored, so calling it again is harmless
+    public synchronized void taskDone(String localAppID, String key) {
+        JobQueue job = jobs.get(localAppID);
+        if (job != null && job.inFlight.remove(key)) {
+            inFlightTasks--;
+            notifyAll();
+        }
+    }
+
+    //the job is done, its remaining tasks are dropped
+    public synchronized void removeJob(String localAppID) {
+        JobQueue job = jobs.remove(localAppID);
+        if (job == null) {
+            return;
+        }
+        active.remove(job);
+        pendingTasks -= job.pending.size();
+        inFlightTasks -= job.inFlight.size();
+        notifyAll();
+    }
+
+    //tasks waiting to be released to the workers queue
+    public synchronized int pendingTasks() {
+        return pendingTasks;
+    }
+
+    private int window() {
+        return Math.min(Math.max(registry.slots() * windowPerSlot, minWindow), maxWindow);
+    }
+}
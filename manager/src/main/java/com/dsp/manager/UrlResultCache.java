@@ -0,0 +1,235 @@
+package com.dsp.manager;
+
+import com.dsp.aws.S3client;
+import com.dsp.utils.GeneralUtils;
+import com.dsp.utils.ResultCodec;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//cross-job cache of OCR results: a normalised url (with the OCR options of the job) -> the reference of its result in s3.
+//cached results are stored under a shared prefix that the jobs don't delete, so a url OCR'd for one job is answered
+//for the next jobs without sending it to a worker. failed urls are kept too (negative entries), for a short time,
+//so a broken link isn't retried by every job.
+//entries expire after their TTL and the least recently used entries are evicted above maxEntries, the index is kept in
+//memory and saved as a compressed snapshot in s3, from which it is loaded when the manager starts.
+//a result is a whole object or a range of a segment object shared by many results (see ResultSegmentWriter), an object
+//is referenced by its cache entries and retained by the running jobs that use it. an object nothing references is
+//deleted after deleteGraceMs, so the local app of a job that just completed can still read it
+public class UrlResultCache {
+
+    public static final String PREFIX = "cache/";
+    private static final String SNAPSHOT_KEY = PREFIX + "index";
+
+    private final S3client s3;
+    private final String bucketName;
+    private final int maxEntries;
+    private final long ttlMs;
+    private final long negativeTtlMs;
+    private final long deleteGraceMs;
+    private final GeneralUtils generalUtils;
+    //access ordered, least recently used first
+    private final LinkedHashMap<String, Entry> entries;
+    //number of cache entries and job retains of every result object
+    private final Map<String, Integer> references;
+    //result objects no longer referenced, with the time they were released
+    private final Map<String, Long> pendingDeletes;
+    private long hits;
+    private long misses;
+
+    public UrlResultCache(S3client s3, String bucketName, int maxEntries, long ttlMs, long negativeTtlMs, long deleteGraceMs,
+                          GeneralUtils generalUtils) {
+        this.s3 = s3;
+        this.bucketName = bucketName;
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.negativeTtlMs = negativeTtlMs;
+        this.deleteGraceMs = deleteGraceMs;
+        this.generalUtils = generalUtils;
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        references = new HashMap<>();
+        pendingDeletes = new HashMap<>();
+    }
+
+    //cache key of a url OCR'd with the given job options
+    public static String cacheKey(String url, String options) {
+        return normalizeUrl(url) + (options.isEmpty() ? "" : " " + options);
+    }
+
+    //lower case scheme and host, no default port and no fragment. a url that can't be parsed is only trimmed
+    static String normalizeUrl(String url) {
+        String trimmed = url.trim();
+        try {
+            URI uri = new URI(trimmed);
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                return trimmed;
+            }
+            String scheme = uri.getScheme().toLowerCase();
+            int port = uri.getPort();
+            if ((scheme.equals("http") && port == 80) || (scheme.equals("https") && port == 443)) {
+                port = -1;
+            }
+            return new URI(scheme, uri.getUserInfo(), uri.getHost().toLowerCase(), port,
+                    uri.getPath(), uri.getQuery(), null).toString();
+        } catch (URISyntaxException e) {
+            return trimmed;
+        }
+    }
+
+    //reference of the cached result, or null if there is none (or it expired).
+    //the object of the result is retained until the caller releases it
+    public synchronized String get(String cacheKey) {
+        Entry entry = entries.get(cacheKey);
+        if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(cacheKey);
+            release(entry.resultKey);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        retain(entry.resultKey);
+        return entry.resultKey;
+    }
+
+    //keep the object of a result reference while it is used
+    public synchronized void retain(String ref) {
+        String objectKey = ResultCodec.refObjectKey(ref);
+        references.merge(objectKey, 1, Integer::sum);
+        pendingDeletes.remove(objectKey);
+    }
+
+    //the object of a result reference is no longer used, it is deleted when nothing references it
+    public synchronized void release(String ref) {
+        String objectKey = ResultCodec.refObjectKey(ref);
+        Integer count = references.get(objectKey);
+        if (count == null || count <= 1) {
+            references.remove(objectKey);
+            pendingDeletes.put(objectKey, System.currentTimeMillis());
+        } else {
+            references.put(objectKey, count - 1);
+        }
+    }
+
+    //cache the result of a url, a negative entry is a failed url, its result is the error summary and it expires sooner.
+    //returns the reference of the result already cached for the url (by a job that OCR'd it at the same time), which is
+    //kept, or null if resultKey was cached. a failure is replaced by a result
+    public synchronized String putIfAbsent(String cacheKey, String resultKey, boolean negative) {
+        long now = System.currentTimeMillis();
+        Entry previous = entries.get(cacheKey);
+        if (previous != null && previous.expiresAt >= now && (negative || !previous.negative)) {
+            return previous.resultKey;
+        }
+        if (previous != null) {
+            release(previous.resultKey);
+        }
+        entries.put(cacheKey, new Entry(resultKey, now + (negative ? negativeTtlMs : ttlMs), negative));
+        retain(resultKey);
+        Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+        while (entries.size() > maxEntries && leastRecentlyUsed.hasNext()) {
+            String evicted = leastRecentlyUsed.next().resultKey;
+            leastRecentlyUsed.remove();
+            release(evicted);
+        }
+        return null;
+    }
+
+    //load the index snapshot, a missing snapshot means an empty cache
+    public void load() {
+        if (s3.getAllObjectsKeys(bucketName, SNAPSHOT_KEY).isEmpty()) {
+            return;
+        }
+        byte[] snapshot = s3.getObjectBytes(bucketName, SNAPSHOT_KEY);
+        if (snapshot == null) {
+            return;
+        }
+        String index;
+        try {
+            index = ResultCodec.decodeObject(snapshot);
+        } catch (IOException e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int badLines = 0;
+        synchronized (this) {
+            for (String line : index.split("\n")) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                long expiresAt = fields.length == 4 ? parseLong(fields[2], -1) : -1;
+                if (expiresAt < 0) {
+                    badLines++; // a corrupt line is skipped, the rest of the snapshot is still loaded
+                    continue;
+                }
+                if (expiresAt > now) {
+                    entries.put(fields[0], new Entry(fields[1], expiresAt, fields[3].equals("n")));
+                    retain(fields[1]);
+                }
+            }
+        }
+        generalUtils.logPrint("Loaded " + entries.size() + " cached results" + (badLines > 0 ? ", skipped " + badLines + " bad lines" : ""));
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    //save the index snapshot (compressed lines of: cache key, result reference, expiry, p/n) and delete the result
+    //objects released more than deleteGraceMs ago
+    public void save() {
+        StringBuilder index = new StringBuilder();
+        List<String> deletes = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                index.append(entry.getKey()).append('\t')
+                        .append(entry.getValue().resultKey).append('\t')
+                        .append(entry.getValue().expiresAt).append('\t')
+                        .append(entry.getValue().negative ? 'n' : 'p').append('\n');
+            }
+            long releasedBefore = System.currentTimeMillis() - deleteGraceMs;
+            Iterator<Map.Entry<String, Long>> released = pendingDeletes.entrySet().iterator();
+            while (released.hasNext()) {
+                Map.Entry<String, Long> object = released.next();
+                if (object.getValue() < releasedBefore) {
+                    deletes.add(object.getKey());
+                    released.remove();
+                }
+            }
+            generalUtils.logPrint(String.format("Result cache: %d entries in %d objects, %d hits, %d misses, %d released objects deleted",
+                    entries.size(), references.size(), hits, misses, deletes.size()));
+        }
+        if (!s3.putObjectBytes(bucketName, SNAPSHOT_KEY, ResultCodec.compress(index.toString()))) {
+            generalUtils.logPrint("Error in saving the result cache snapshot");
+        }
+        for (String key : deletes) {
+            s3.deleteObject(bucketName, key);
+        }
+    }
+
+    private static class Entry {
+        private final String resultKey;
+        private final long expiresAt;
+        private final boolean negative;
+
+        Entry(String resultKey, long expiresAt, boolean negative) {
+            this.resultKey = resultKey;
+            this.expiresAt = expiresAt;
+            this.negative = negative;
+        }
+    }
+}
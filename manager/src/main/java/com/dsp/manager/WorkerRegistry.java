@@ -0,0 +1,122 @@
+package com.dsp.manager;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+//the workers the manager knows about, kept from the heartbeats of the workers (WORKER_HEARTBEAT messages) and the
+//instances the manager started, so counting the workers doesn't describe the ec2 instances.
+//a worker that didn't send a heartbeat for heartbeatTimeoutMs is dropped (it crashed or was terminated), and a started
+//instance that didn't send its first heartbeat within bootTimeoutMs is dropped too.
+//reconcile with the ec2 instances from time to time, for workers the manager didn't start or missed
+public class WorkerRegistry {
+
+    private static class WorkerState {
+        final long registeredAt;
+        volatile long lastSeen;
+        volatile boolean heartbeated;
+        volatile double rate;
+        volatile int slots;
+
+        WorkerState(long now) {
+            registeredAt = now;
+            lastSeen = now;
+        }
+    }
+
+    private final long heartbeatTimeoutMs;
+    private final long bootTimeoutMs;
+    private final Map<String, WorkerState> workers;
+
+    public WorkerRegistry(long heartbeatTimeoutMs, long bootTimeoutMs) {
+        this.heartbeatTimeoutMs = heartbeatTimeoutMs;
+        this.bootTimeoutMs = bootTimeoutMs;
+        workers = new ConcurrentHashMap<>();
+    }
+
+    //update the worker of a heartbeat message, a terminating worker is removed
+    public void heartbeat(Message m) {
+        Map<String, MessageAttributeValue> attributes = m.messageAttributes();
+        MessageAttributeValue instanceId = attributes.get("InstanceID");
+        if (instanceId == null) {
+            return;
+        }
+        MessageAttributeValue status = attributes.get("Status");
+        if (status != null && status.stringValue().equals("terminating")) {
+            workers.remove(instanceId.stringValue());
+            return;
+        }
+        long now = System.currentTimeMillis();
+        WorkerState state = workers.computeIfAbsent(instanceId.stringValue(), id -> new WorkerState(now));
+        state.lastSeen = now;
+        state.heartbeated = true;
+        state.rate = parseDouble(attributes.get("TasksPerSecond"), 0);
+        state.slots = (int) parseDouble(attributes.get("Slots"), 0);
+    }
+
+    //instances the manager started, counted as workers until they send heartbeats or the boot timeout passes
+    public void launched(Collection<String> instanceIds) {
+        long now = System.currentTimeMillis();
+        for (String instanceId : instanceIds) {
+            workers.putIfAbsent(instanceId, new WorkerState(now));
+        }
+    }
+
+    //running and booting workers
+    public int size() {
+        expire();
+        return workers.size();
+    }
+
+    //average tasks per second of a busy worker, from the heartbeats, -1 when no worker completed tasks lately
+    public double workerRate() {
+        expire();
+        double sum = 0;
+        int count = 0;
+        for (WorkerState state : workers.values()) {
+            if (state.heartbeated && state.rate > 0) {
+                sum += state.rate;
+                count++;
+            }
+        }
+        return count == 0 ? -1 : sum / count;
+    }
+
+    //OCR slots reported by the workers
+    public int slots() {
+        int slots = 0;
+        for (WorkerState state : workers.values()) {
+            slots += state.slots;
+        }
+        return slots;
+    }
+
+    //align the registry with the running and pending worker instances of ec2: unknown instances are added as booting
+    //workers and workers without an instance are removed
+    public void reconcile(Set<String> instanceIds) {
+        workers.keySet().retainAll(instanceIds);
+        launched(instanceIds);
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        workers.values().removeIf(state -> state.heartbeated
+                ? now - state.lastSeen > heartbeatTimeoutMs
+                : now - state.registeredAt > bootTimeoutMs);
+    }
+
+    private static double parseDouble(MessageAttributeValue value, double defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.stringValue());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
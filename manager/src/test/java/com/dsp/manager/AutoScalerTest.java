@@ -0,0 +1,167 @@
+package com.dsp.manager;
+
+import com.dsp.aws.EC2Client;
+import com.dsp.aws.SQSClient;
+import com.dsp.utils.GeneralUtils;
+import org.junit.Test;
+import software.amazon.awssdk.services.ec2.model.Filter;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceType;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class AutoScalerTest {
+
+    private static final GeneralUtils QUIET = new GeneralUtils() {
+        @Override
+        public synchronized void logPrint(String msg) {
+        }
+    };
+
+    private static class FakeSqs extends SQSClient {
+        int backlog;
+        int terminateMessages;
+
+        FakeSqs() {
+            super(null);
+        }
+
+        @Override
+        public int getPendingMessagesSize(String queueUrl) {
+            return backlog;
+        }
+
+        @Override
+        public boolean sendMessage(String queueUrl, String messageBody, HashMap<String, MessageAttributeValue> attributes) {
+            if (messageBody.equals("WORKER_TERMINATE")) {
+                terminateMessages++;
+            }
+            return true;
+        }
+    }
+
+    private static class FakeEc2 extends EC2Client {
+        int started;
+
+        FakeEc2() {
+            super(null);
+        }
+
+        @Override
+        public List<Instance> getAllInstances(Filter filter) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<Instance> createEC2Instances(String amiId, String keyName, int minCount, int maxCount, String userData,
+                                                 String arn, InstanceType instanceType) {
+            List<Instance> instances = new ArrayList<>();
+            for (int i = 0; i < maxCount; i++) {
+                instances.add(Instance.builder().instanceId("i-" + started++).build());
+            }
+            return instances;
+        }
+
+        @Override
+        public boolean createTag(String tagName, String tagValue, String instanceId) {
+            return true;
+        }
+    }
+
+    private final FakeSqs sqs = new FakeSqs();
+    private final FakeEc2 ec2 = new FakeEc2();
+    private final WorkerRegistry registry = new WorkerRegistry(60_000, 60_000);
+    //the number of workers the policy asks for
+    private int desired;
+
+    private AutoScaler scaler(long scaleOutCooldownMs, long scaleInCooldownMs, int scaleInEvaluations) {
+        return new AutoScaler(ec2, sqs, "queue", registry, 60_000, (backlog, workerRate, currentWorkers) -> desired,
+                10, 1.0, scaleOutCooldownMs, scaleInCooldownMs, scaleInEvaluations, QUIET);
+    }
+
+    @Test
+    public void scalesOutToDesiredWorkers() {
+        AutoScaler scaler = scaler(0, 0, 1);
+        sqs.backlog = 100;
+        desired = 3;
+        scaler.evaluate(10, 0);
+        assertEquals(3, ec2.started);
+        assertEquals(3, registry.size());
+    }
+
+    @Test
+    public void capsWorkersByJobsAndLimit() {
+        AutoScaler scaler = scaler(0, 0, 1);
+        sqs.backlog = 100;
+        desired = 50;
+        scaler.evaluate(4, 0);
+        assertEquals(4, ec2.started);
+        scaler.evaluate(100, 0);
+        assertEquals(10, ec2.started);
+    }
+
+    @Test
+    public void keepsOneWorkerWhileThereIsBacklog() {
+        AutoScaler scaler = scaler(0, 0, 1);
+        desired = 0;
+        scaler.evaluate(10, 5); // tasks held by the scheduler are backlog too
+        assertEquals(1, ec2.started);
+    }
+
+    @Test
+    public void waitsForScaleOutCooldown() {
+        AutoScaler scaler = scaler(60_000, 0, 1);
+        sqs.backlog = 100;
+        desired = 2;
+        scaler.evaluate(10, 0);
+        desired = 5;
+        scaler.evaluate(10, 0);
+        assertEquals(2, ec2.started);
+    }
+
+    @Test
+    public void scalesInOnlyAfterConsecutiveEvaluationsBelow() {
+        AutoScaler scaler = scaler(0, 0, 3);
+        registry.launched(Arrays.asList("i-a", "i-b", "i-c", "i-d"));
+        desired = 1;
+        scaler.evaluate(10, 0);
+        scaler.evaluate(10, 0);
+        assertEquals(0, sqs.terminateMessages);
+        scaler.evaluate(10, 0);
+        assertEquals(3, sqs.terminateMessages);
+    }
+
+    @Test
+    public void evaluationAtDesiredSizeResetsScaleIn() {
+        AutoScaler scaler = scaler(0, 0, 3);
+        registry.launched(Arrays.asList("i-a", "i-b", "i-c", "i-d"));
+        desired = 1;
+        scaler.evaluate(10, 0);
+        scaler.evaluate(10, 0);
+        desired = 4;
+        scaler.evaluate(10, 0);
+        desired = 1;
+        scaler.evaluate(10, 0);
+        scaler.evaluate(10, 0);
+        assertEquals(0, sqs.terminateMessages);
+    }
+
+    @Test
+    public void doesNotScaleInRightAfterScaleOut() {
+        AutoScaler scaler = scaler(0, 60_000, 1);
+        sqs.backlog = 100;
+        desired = 4;
+        scaler.evaluate(10, 0);
+        sqs.backlog = 0;
+        desired = 1;
+        scaler.evaluate(10, 0);
+        scaler.evaluate(10, 0);
+        assertEquals(0, sqs.terminateMessages);
+    }
+}
@@ -0,0 +1,28 @@
+package com.dsp.manager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DrainTimePolicyTest {
+
+    @Test
+    public void noWorkersWithoutBacklog() {
+        assertEquals(0, new DrainTimePolicy(60).desiredWorkers(0, 1.0, 5));
+    }
+
+    @Test
+    public void enoughWorkersToDrainWithinTarget() {
+        //a worker drains 0.5 * 60 = 30 tasks in the target time
+        assertEquals(4, new DrainTimePolicy(60).desiredWorkers(100, 0.5, 1));
+        assertEquals(1, new DrainTimePolicy(60).desiredWorkers(30, 0.5, 1));
+        assertEquals(2, new DrainTimePolicy(60).desiredWorkers(31, 0.5, 1));
+    }
+
+    @Test
+    public void slowerWorkersNeedMoreWorkers() {
+        DrainTimePolicy policy = new DrainTimePolicy(120);
+        assertTrue(policy.desiredWorkers(1_000, 0.1, 1) > policy.desiredWorkers(1_000, 1.0, 1));
+    }
+}
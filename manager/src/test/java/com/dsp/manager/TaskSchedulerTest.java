@@ -0,0 +1,146 @@
+package com.dsp.manager;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TaskSchedulerTest {
+
+    private static final Map<String, MessageAttributeValue> NO_ATTRIBUTES = new HashMap<>();
+
+    //a scheduler without workers, its window is minWindow
+    private static TaskScheduler scheduler(int batchSize, int maxPendingPerJob, int window) {
+        return new TaskScheduler(batchSize, maxPendingPerJob, window, window, 4, new WorkerRegistry(60_000, 60_000));
+    }
+
+    private static List<String> urls(String prefix, int count) {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            urls.add(prefix + i);
+        }
+        return urls;
+    }
+
+    private static List<String> keys(TaskScheduler.Batch batch) {
+        List<String> keys = new ArrayList<>();
+        for (TaskScheduler.Task task : batch.tasks) {
+            keys.add(task.key);
+        }
+        return keys;
+    }
+
+    @Test
+    public void releasesJobsInWeightedRoundRobin() throws InterruptedException {
+        TaskScheduler scheduler = scheduler(1, 100, 100);
+        scheduler.addJob("a", 2, NO_ATTRIBUTES);
+        scheduler.addJob("b", 1, NO_ATTRIBUTES);
+        assertTrue(scheduler.submit("a", urls("a", 6), 0));
+        assertTrue(scheduler.submit("b", urls("b", 6), 0));
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            order.append(scheduler.nextBatch(0).localAppID);
+        }
+        assertEquals("aabaab", order.toString());
+    }
+
+    @Test
+    public void windowLimitsTasksInFlight() throws InterruptedException {
+        TaskScheduler scheduler = scheduler(2, 100, 4);
+        scheduler.addJob("a", 1, NO_ATTRIBUTES);
+        scheduler.submit("a", urls("u", 10), 0);
+        assertEquals(Arrays.asList("u0", "u1"), keys(scheduler.nextBatch(0)));
+        assertEquals(Arrays.asList("u2", "u3"), keys(scheduler.nextBatch(0)));
+        assertNull(scheduler.nextBatch(50));
+        scheduler.taskDone("a", "u0");
+        assertNull(scheduler.nextBatch(50)); // no room for a whole batch yet
+        scheduler.taskDone("a", "u1");
+        assertEquals(Arrays.asList("u4", "u5"), keys(scheduler.nextBatch(0)));
+    }
+
+    @Test
+    public void taskDoneIsIdempotent() throws InterruptedException {
+        TaskScheduler scheduler = scheduler(1, 100, 2);
+        scheduler.addJob("a", 1, NO_ATTRIBUTES);
+        scheduler.submit("a", urls("u", 4), 0);
+        scheduler.nextBatch(0);
+        scheduler.nextBatch(0);
+        scheduler.taskDone("a", "u0");
+        scheduler.taskDone("a", "u0");
+        scheduler.taskDone("a", "never-released");
+        scheduler.taskDone("unknown-job", "u1");
+        assertNotNull(scheduler.nextBatch(0));
+        assertNull(scheduler.nextBatch(50));
+    }
+
+    @Test
+    public void submitWaitsWhileJobHasTooManyPendingTasks() throws InterruptedException {
+        TaskScheduler scheduler = scheduler(1, 2, 100);
+        scheduler.addJob("a", 1, NO_ATTRIBUTES);
+        assertTrue(scheduler.submit("a", urls("u", 2), 0));
+        assertFalse(scheduler.submit("a", urls("v", 1), 50));
+        assertEquals(2, scheduler.pendingTasks());
+        scheduler.nextBatch(0);
+        assertTrue(scheduler.submit("a", urls("v", 1), 50));
+        assertEquals(2, scheduler.pendingTasks());
+    }
+
+    @Test
+    public void submitFirstQueuesTasksAheadOfPendingTasks() throws InterruptedException {
+        TaskScheduler scheduler = scheduler(10, 100, 100);
+        Map<String, MessageAttributeValue> jobAttributes = new HashMap<>();
+        scheduler.addJob("a", 1, jobAttributes);
+        scheduler.submit("a", urls("u", 2), 0);
+        Map<String, MessageAttributeValue> partAttributes = new HashMap<>();
+        assertTrue(scheduler.submitFirst("a", Arrays.asList(
+                new TaskScheduler.Task("doc#part0", "doc", partAttributes),
+                new TaskScheduler.Task("doc#part1", "doc", partAttributes))));
+        TaskScheduler.Batch batch = scheduler.nextBatch(0);
+        assertEquals(Arrays.asList("doc#part0", "doc#part1", "u0", "u1"), keys(batch));
+        assertEquals("doc", batch.tasks.get(0).url);
+        assertSame(partAttributes, batch.tasks.get(0).attributes);
+        assertSame(jobAttributes, batch.tasks.get(2).attributes);
+    }
+
+    @Test
+    public void submitFirstActivatesIdleJob() throws InterruptedException {
+        TaskScheduler scheduler = scheduler(10, 100, 100);
+        scheduler.addJob("a", 1, NO_ATTRIBUTES);
+        assertNull(scheduler.nextBatch(0));
+        scheduler.submitFirst("a", Collections.singletonList(new TaskScheduler.Task("doc#part0", "doc", NO_ATTRIBUTES)));
+        assertEquals(Collections.singletonList("doc#part0"), keys(scheduler.nextBatch(0)));
+    }
+
+    @Test
+    public void unknownJobIsRejected() throws InterruptedException {
+        TaskScheduler scheduler = scheduler(1, 100, 100);
+        assertFalse(scheduler.submit("a", urls("u", 1), 0));
+        assertFalse(scheduler.submitFirst("a", Collections.singletonList(new TaskScheduler.Task("k", "u", NO_ATTRIBUTES))));
+    }
+
+    @Test
+    public void removeJobDropsItsTasksAndReleasesItsWindow() throws InterruptedException {
+        TaskScheduler scheduler = scheduler(1, 100, 1);
+        scheduler.addJob("a", 1, NO_ATTRIBUTES);
+        scheduler.addJob("b", 1, NO_ATTRIBUTES);
+        scheduler.submit("a", urls("a", 3), 0);
+        scheduler.submit("b", urls("b", 1), 0);
+        assertEquals("a", scheduler.nextBatch(0).localAppID);
+        assertNull(scheduler.nextBatch(50));
+        scheduler.removeJob("a");
+        assertEquals(1, scheduler.pendingTasks());
+        assertEquals("b", scheduler.nextBatch(0).localAppID);
+    }
+}
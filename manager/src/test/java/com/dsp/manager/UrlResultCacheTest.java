@@ -0,0 +1,175 @@
+package com.dsp.manager;
+
+import com.dsp.aws.S3client;
+import com.dsp.utils.GeneralUtils;
+import com.dsp.utils.ResultCodec;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UrlResultCacheTest {
+
+    private static final GeneralUtils QUIET = new GeneralUtils() {
+        @Override
+        public synchronized void logPrint(String msg) {
+        }
+    };
+
+    private static class FakeS3 extends S3client {
+        final List<String> deleted = new ArrayList<>();
+        byte[] snapshot;
+
+        FakeS3() {
+            super(null);
+        }
+
+        @Override
+        public boolean putObjectBytes(String bucketName, String bucketKey, byte[] value) {
+            snapshot = value;
+            return true;
+        }
+
+        @Override
+        public List<String> getAllObjectsKeys(String bucket, String prefix) {
+            return snapshot == null ? Collections.<String>emptyList() : Collections.singletonList(prefix);
+        }
+
+        @Override
+        public byte[] getObjectBytes(String bucket, String bucketKey) {
+            return snapshot;
+        }
+
+        @Override
+        public boolean deleteObject(String bucketName, String bucketKey) {
+            deleted.add(bucketKey);
+            return true;
+        }
+    }
+
+    private final FakeS3 s3 = new FakeS3();
+
+    private UrlResultCache cache(int maxEntries, long ttlMs, long negativeTtlMs) {
+        return new UrlResultCache(s3, "bucket", maxEntries, ttlMs, negativeTtlMs, 0, QUIET);
+    }
+
+    @Test
+    public void normalizesCacheKeys() {
+        assertEquals(UrlResultCache.cacheKey("http://host/a.png", "lang=eng"),
+                UrlResultCache.cacheKey(" HTTP://HOST:80/a.png#top ", "lang=eng"));
+        assertNotEquals(UrlResultCache.cacheKey("http://host/a.png", "lang=eng"), UrlResultCache.cacheKey("http://host/a.png", ""));
+    }
+
+    @Test
+    public void returnsCachedResult() {
+        UrlResultCache cache = cache(10, 60_000, 60_000);
+        assertNull(cache.putIfAbsent("k", "cache/r1", false));
+        assertEquals("cache/r1", cache.get("k"));
+        assertNull(cache.get("other"));
+    }
+
+    @Test
+    public void expiredEntryIsMiss() throws InterruptedException {
+        UrlResultCache cache = cache(10, 1, 1);
+        cache.putIfAbsent("k", "cache/r1", false);
+        Thread.sleep(5);
+        assertNull(cache.get("k"));
+    }
+
+    @Test
+    public void failureExpiresSooner() throws InterruptedException {
+        UrlResultCache cache = cache(10, 60_000, 1);
+        cache.putIfAbsent("ok", "cache/r1", false);
+        cache.putIfAbsent("failed", "cache/r2", true);
+        Thread.sleep(5);
+        assertEquals("cache/r1", cache.get("ok"));
+        assertNull(cache.get("failed"));
+    }
+
+    @Test
+    public void resultReplacesFailureButNotTheOtherWayAround() {
+        UrlResultCache cache = cache(10, 60_000, 60_000);
+        cache.putIfAbsent("k", "cache/failure", true);
+        assertNull(cache.putIfAbsent("k", "cache/result", false));
+        assertEquals("cache/result", cache.putIfAbsent("k", "cache/failure2", true));
+        assertEquals("cache/result", cache.putIfAbsent("k", "cache/result2", false));
+        assertEquals("cache/result", cache.get("k"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntry() {
+        UrlResultCache cache = cache(2, 60_000, 60_000);
+        cache.putIfAbsent("a", "cache/a", false);
+        cache.putIfAbsent("b", "cache/b", false);
+        cache.get("a");
+        cache.putIfAbsent("c", "cache/c", false);
+        assertEquals("cache/a", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("cache/c", cache.get("c"));
+    }
+
+    @Test
+    public void deletesSegmentOnlyWhenNothingReferencesIt() throws InterruptedException {
+        UrlResultCache cache = cache(10, 1, 1);
+        String segment = UrlResultCache.PREFIX + "segments/s1";
+        cache.retain(segment); // the job writing the segment
+        cache.putIfAbsent("k1", ResultCodec.rangeRef(segment, 0, 5), false);
+        cache.putIfAbsent("k2", ResultCodec.rangeRef(segment, 5, 5), false);
+        cache.release(segment); // the job completed
+        Thread.sleep(5);
+        cache.save();
+        assertTrue(s3.deleted.isEmpty());
+
+        assertNull(cache.get("k1")); // both entries expired
+        assertNull(cache.get("k2"));
+        Thread.sleep(5);
+        cache.save();
+        assertEquals(Collections.singletonList(segment), s3.deleted);
+    }
+
+    @Test
+    public void retainedObjectIsNotDeleted() throws InterruptedException {
+        UrlResultCache cache = cache(10, 60_000, 60_000);
+        cache.putIfAbsent("k", "cache/r1", false);
+        String ref = cache.get("k"); // retained by the job that got the hit
+        cache.putIfAbsent("k", "cache/r1", false);
+        cache.release(ref);
+        Thread.sleep(5);
+        cache.save();
+        assertTrue(s3.deleted.isEmpty());
+    }
+
+    @Test
+    public void loadsSavedSnapshot() {
+        UrlResultCache saved = cache(10, 60_000, 60_000);
+        saved.putIfAbsent("k1", "cache/r1", false);
+        saved.putIfAbsent("k2", "cache/r2", true);
+        saved.save();
+
+        UrlResultCache loaded = cache(10, 60_000, 60_000);
+        loaded.load();
+        assertEquals("cache/r1", loaded.get("k1"));
+        assertEquals("cache/r2", loaded.get("k2"));
+    }
+
+    @Test
+    public void skipsCorruptSnapshotLines() {
+        long expiresAt = System.currentTimeMillis() + 60_000;
+        s3.snapshot = ResultCodec.compress("k1\tcache/r1\t" + expiresAt + "\tp\n"
+                + "k2\tcache/r2\tnot a number\tp\n"
+                + "k3\tcache/r3\n"
+                + "k4\tcache/r4\t" + expiresAt + "\tn\n");
+        UrlResultCache cache = cache(10, 60_000, 60_000);
+        cache.load();
+        assertEquals("cache/r1", cache.get("k1"));
+        assertNull(cache.get("k2"));
+        assertNull(cache.get("k3"));
+        assertEquals("cache/r4", cache.get("k4"));
+    }
+}
@@ -0,0 +1,53 @@
+package com.dsp.worker;
+
+import java.io.File;
+
+//raw (still encoded) bytes of a downloaded image, kept in memory or spilled to a temp file when the image is large
+public class DownloadedImage {
+
+    private final byte[] bytes;
+    private final File file;
+    private final long size;
+    private final String digest;
+
+    private DownloadedImage(byte[] bytes, File file, long size, String digest) {
+        this.bytes = bytes;
+        this.file = file;
+        this.size = size;
+        this.digest = digest;
+    }
+
+    public static DownloadedImage inMemory(byte[] bytes, String digest) {
+        return new DownloadedImage(bytes, null, bytes.length, digest);
+    }
+
+    public static DownloadedImage spilled(File file, String digest) {
+        return new DownloadedImage(null, file, file.length(), digest);
+    }
+
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    //hex sha-256 of the image bytes
+    public String getDigest() {
+        return digest;
+    }
+
+    //delete the spill file if there is one
+    public boolean dispose() {
+        return file == null || !file.exists() || file.delete();
+    }
+}
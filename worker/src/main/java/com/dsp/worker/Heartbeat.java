@@ -0,0 +1,71 @@
+package com.dsp.worker;
+
+import com.dsp.aws.SQSClient;
+import com.dsp.utils.GeneralUtils;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+//periodically tells the manager that this worker is alive and how fast it completes tasks, the manager keeps its
+//registry of workers from the heartbeats instead of describing the ec2 instances.
+//a heartbeat is a "WORKER_HEARTBEAT" message in the results queue with the attributes: InstanceID, Status (running or
+//terminating), CompletedTasks (since the worker started), TasksPerSecond (since the previous heartbeat), Slots (OCR slots)
+public class Heartbeat implements Runnable {
+
+    private final SQSClient sqs;
+    private final String queueUrl;
+    private final String instanceId;
+    private final AtomicLong completedTasks;
+    private final SlotLimiter slotLimiter;
+    private final GeneralUtils generalUtils;
+    private long lastCompletedTasks;
+    private long lastHeartbeatAt;
+
+    public Heartbeat(SQSClient sqs, String queueUrl, String instanceId, AtomicLong completedTasks, SlotLimiter slotLimiter, GeneralUtils generalUtils) {
+        this.sqs = sqs;
+        this.queueUrl = queueUrl;
+        this.instanceId = instanceId;
+        this.completedTasks = completedTasks;
+        this.slotLimiter = slotLimiter;
+        this.generalUtils = generalUtils;
+        lastCompletedTasks = 0;
+        lastHeartbeatAt = System.currentTimeMillis();
+    }
+
+    @Override
+    public void run() {
+        try {
+            send("running");
+        } catch (Exception e) {
+            // never let an exception cancel the periodic task
+            GeneralUtils.printStackTrace(e, generalUtils);
+        }
+    }
+
+    //the last heartbeat, the manager drops the worker from its registry right away
+    public void sendTerminating() {
+        send("terminating");
+    }
+
+    private synchronized void send(String status) {
+        long now = System.currentTimeMillis();
+        long completed = completedTasks.get();
+        double rate = now > lastHeartbeatAt ? (completed - lastCompletedTasks) * 1000.0 / (now - lastHeartbeatAt) : 0;
+        lastCompletedTasks = completed;
+        lastHeartbeatAt = now;
+
+        HashMap<String, MessageAttributeValue> attributes = new HashMap<>();
+        attributes.put("From", MessageAttributeValue.builder().dataType("String").stringValue("Worker").build());
+        attributes.put("To", MessageAttributeValue.builder().dataType("String").stringValue("Manager").build());
+        attributes.put("InstanceID", MessageAttributeValue.builder().dataType("String").stringValue(instanceId).build());
+        attributes.put("Status", MessageAttributeValue.builder().dataType("String").stringValue(status).build());
+        attributes.put("CompletedTasks", MessageAttributeValue.builder().dataType("Number").stringValue(Long.toString(completed)).build());
+        attributes.put("TasksPerSecond", MessageAttributeValue.builder().dataType("Number").stringValue(String.format(Locale.ROOT, "%.4f", rate)).build());
+        attributes.put("Slots", MessageAttributeValue.builder().dataType("Number").stringValue(Integer.toString(slotLimiter.getLimit())).build());
+        if (!sqs.sendMessage(queueUrl, "WORKER_HEARTBEAT", attributes, 0)) {
+            generalUtils.logPrint("Error at sending heartbeat to manager");
+        }
+    }
+}
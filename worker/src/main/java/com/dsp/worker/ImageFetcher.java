@@ -0,0 +1,214 @@
+package com.dsp.worker;
+
+import com.dsp.utils.GeneralUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.ThreadLocalRandom;
+
+//downloads images without decoding them, using a pooled keep-alive http client with connect/read timeouts,
+//a cap on the image size, a limit of concurrent connections per host and retries with exponential backoff.
+//small images stay in memory and images above the spill threshold are streamed to a temp file so they don't take heap space
+public class ImageFetcher {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long BACKOFF_BASE_MS = 500;
+
+    private final CloseableHttpClient httpClient;
+    private final long spillThresholdBytes;
+    private final long maxBytes;
+    private final int maxRetries;
+    private final GeneralUtils generalUtils;
+
+    public ImageFetcher(WorkerConfiguration config, GeneralUtils generalUtils) {
+        this.spillThresholdBytes = config.getSpillThresholdBytes();
+        this.maxBytes = config.getFetchMaxBytes();
+        this.maxRetries = config.getFetchRetries();
+        this.generalUtils = generalUtils;
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(config.getFetchMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(config.getFetchMaxPerHost()); // a waiting request blocks until a connection of its host is free
+        connectionManager.setValidateAfterInactivity((int) BACKOFF_BASE_MS); // a retry after backoff doesn't get a connection the server closed
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(config.getFetchConnectTimeoutMs())
+                .setSocketTimeout(config.getFetchReadTimeoutMs())
+                .setConnectionRequestTimeout(config.getFetchPoolTimeoutMs())
+                .setRedirectsEnabled(config.getFetchMaxRedirects() > 0)
+                .setMaxRedirects(config.getFetchMaxRedirects())
+                .setCircularRedirectsAllowed(false)
+                .build();
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .disableAutomaticRetries() // retries are done here, with backoff
+                .build();
+    }
+
+    //returns null if the url can't be downloaded or isn't an image
+    public DownloadedImage download(String urlInput) {
+        DownloadedImage image = null;
+        for (int attempt = 0; image == null; attempt++) {
+            try {
+                image = fetch(urlInput);
+            } catch (FetchException e) {
+                if (!e.isRetryable() || attempt >= maxRetries) {
+                    generalUtils.logPrint("Error at downloadImage: " + e.getMessage() + ", URL: " + urlInput);
+                    return null;
+                }
+                backoff(attempt, e.getMessage());
+            } catch (ClientProtocolException | IllegalArgumentException e) {
+                //a malformed url or a protocol error (like too many redirects) fails the same way on every attempt
+                generalUtils.logPrint("Error at downloadImage: bad link (" + e + "), URL: " + urlInput);
+                return null;
+            } catch (IOException e) {
+                if (attempt >= maxRetries) {
+                    generalUtils.logPrint("Error at downloadImage: broken link (" + e + "), URL: " + urlInput);
+                    return null;
+                }
+                backoff(attempt, e.toString());
+            }
+        }
+        if (!isImage(image)) {
+            generalUtils.logPrint("Error at downloadImage: image can't be downloaded");
+            image.dispose();
+            return null;
+        }
+        return image;
+    }
+
+    private DownloadedImage fetch(String urlInput) throws IOException {
+        HttpGet request = new HttpGet(urlInput);
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status != HttpStatus.SC_OK) {
+                boolean retryable = status >= 500 || status == HttpStatus.SC_REQUEST_TIMEOUT || status == 429;
+                throw new FetchException("http status " + status, retryable);
+            }
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new FetchException("empty response", false);
+            }
+            if (entity.getContentLength() > maxBytes) {
+                throw new FetchException("image too large (" + entity.getContentLength() + " bytes)", false);
+            }
+            InputStream in = entity.getContent();
+            try {
+                return read(in);
+            } catch (IOException e) {
+                request.abort(); // don't read the rest of a failed (or too large) image just to reuse the connection
+                throw e;
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private void backoff(int attempt, String reason) {
+        long delay = BACKOFF_BASE_MS * (1L << attempt) + ThreadLocalRandom.current().nextLong(BACKOFF_BASE_MS);
+        generalUtils.logPrint("Download failed (" + reason + "), retrying in " + delay + "ms");
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //reads the whole stream, hashing the bytes on the way (for the results cache)
+    private DownloadedImage read(InputStream stream) throws IOException {
+        MessageDigest digest = ResultCache.newDigest();
+        DigestInputStream in = new DigestInputStream(stream, digest);
+        ByteArrayOutputStream memory = new ByteArrayOutputStream(BUFFER_SIZE);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            memory.write(buffer, 0, read);
+            checkSize(memory.size());
+            if (memory.size() > spillThresholdBytes) {
+                return spill(memory, in, buffer, digest);
+            }
+        }
+        return DownloadedImage.inMemory(memory.toByteArray(), ResultCache.toHex(digest.digest()));
+    }
+
+    //write what was read so far and the rest of the stream to a temp file
+    private DownloadedImage spill(ByteArrayOutputStream memory, InputStream in, byte[] buffer, MessageDigest digest) throws IOException {
+        File file = new File(GeneralUtils.getUniqueID() + "__Image");
+        try (OutputStream out = new FileOutputStream(file)) {
+            memory.writeTo(out);
+            long total = memory.size();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                total += read;
+                checkSize(total);
+            }
+        } catch (IOException e) {
+            if (!file.delete()) {
+                generalUtils.logPrint("Image can't be deleted");
+            }
+            throw e;
+        }
+        generalUtils.logPrint("Image spilled to disk, size " + file.length() + " bytes");
+        return DownloadedImage.spilled(file, ResultCache.toHex(digest.digest()));
+    }
+
+    private void checkSize(long size) throws FetchException {
+        if (size > maxBytes) {
+            throw new FetchException("image larger than " + maxBytes + " bytes", false);
+        }
+    }
+
+    //checks the image header only, the image itself is decoded later by the OCR engine. pdf documents are accepted too
+    private boolean isImage(DownloadedImage image) {
+        if (PagedDocument.isPdf(image)) {
+            return true;
+        }
+        try (ImageInputStream stream = image.isSpilled()
+                ? ImageIO.createImageInputStream(image.getFile())
+                : ImageIO.createImageInputStream(new ByteArrayInputStream(image.getBytes()))) {
+            return stream != null && ImageIO.getImageReaders(stream).hasNext();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+        }
+    }
+
+    private static class FetchException extends IOException {
+        private final boolean retryable;
+
+        FetchException(String message, boolean retryable) {
+            super(message);
+            this.retryable = retryable;
+        }
+
+        boolean isRetryable() {
+            return retryable;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.dsp.worker;
+
+import com.dsp.utils.GeneralUtils;
+import com.recognition.software.jdeskew.ImageDeskew;
+import net.sourceforge.tess4j.util.ImageHelper;
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//optional preprocessing of an image before OCR, to cut OCR time on huge or noisy images:
+//subsampled decoding to a target dpi, grayscale conversion, adaptive thresholding and deskew.
+//the image is decoded to at most the tiling threshold of pixels (subsampled further if needed), since a preprocessed
+//image is OCR'd whole and not in tiles
+public class ImagePreprocessor {
+
+    //assumed page width (inches) when the image has no resolution metadata
+    private static final double DEFAULT_PAGE_WIDTH_INCHES = 8.5;
+    private static final double MIN_SKEW_ANGLE = 0.05;
+    //a pixel darker than (1 - THRESHOLD_K) of its neighbourhood mean becomes black
+    private static final double THRESHOLD_K = 0.15;
+
+    private final long maxPixels;
+    private final GeneralUtils generalUtils;
+
+    public ImagePreprocessor(WorkerConfiguration config, GeneralUtils generalUtils) {
+        this.maxPixels = config.getTileThresholdPixels();
+        this.generalUtils = generalUtils;
+    }
+
+    //decode and preprocess the image, the time spent in every step is logged
+    public BufferedImage process(DownloadedImage image, PreprocessOptions options) throws IOException {
+        Map<String, Long> stepTimes = new LinkedHashMap<>();
+        long start = System.nanoTime();
+        BufferedImage result = decode(image, options.getTargetDpi());
+        start = recordStep(stepTimes, "decode", start);
+        if (options.isGrayscale() || options.isThreshold()) {
+            result = toGrayscale(result);
+            start = recordStep(stepTimes, "grayscale", start);
+        }
+        if (options.isThreshold()) {
+            result = adaptiveThreshold(result);
+            start = recordStep(stepTimes, "threshold", start);
+        }
+        if (options.isDeskew()) {
+            result = deskew(result);
+            recordStep(stepTimes, "deskew", start);
+        }
+        generalUtils.logPrint("Preprocessing (" + options + ") " + result.getWidth() + "x" + result.getHeight() + " times in ms: " + stepTimes);
+        return result;
+    }
+
+    private static long recordStep(Map<String, Long> stepTimes, String step, long start) {
+        long now = System.nanoTime();
+        stepTimes.put(step, (now - start) / 1_000_000);
+        return now;
+    }
+
+    //decode the image, skipping rows and columns so the result is close to the target dpi and within maxPixels
+    private BufferedImage decode(DownloadedImage image, int targetDpi) throws IOException {
+        try (ImageInputStream stream = image.isSpilled()
+                ? ImageIO.createImageInputStream(image.getFile())
+                : ImageIO.createImageInputStream(new ByteArrayInputStream(image.getBytes()))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader found");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, false);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = 1;
+                if (targetDpi > 0) {
+                    double sourceDpi = getDpi(reader);
+                    subsampling = Math.max((int) Math.floor(sourceDpi / targetDpi), 1);
+                }
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                int minSubsampling = (int) Math.ceil(Math.sqrt((double) pixels / maxPixels));
+                if (minSubsampling > subsampling) {
+                    generalUtils.logPrint("Preprocessing: downscaling an image of " + pixels + " pixels by " + minSubsampling);
+                    subsampling = minSubsampling;
+                }
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    //resolution from the image metadata, or estimated from the width of a standard page
+    private double getDpi(ImageReader reader) throws IOException {
+        try {
+            IIOMetadata metadata = reader.getImageMetadata(0);
+            if (metadata != null && metadata.isStandardMetadataFormatSupported()) {
+                Node root = metadata.getAsTree("javax_imageio_1.0");
+                for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+                    if (!node.getNodeName().equals("Dimension")) {
+                        continue;
+                    }
+                    for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                        if (child.getNodeName().equals("HorizontalPixelSize")) {
+                            double millimetersPerPixel = Double.parseDouble(child.getAttributes().getNamedItem("value").getNodeValue());
+                            if (millimetersPerPixel > 0) {
+                                return 25.4 / millimetersPerPixel;
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            generalUtils.logPrint("Error in preprocessing: bad resolution metadata, estimating dpi");
+        }
+        return reader.getWidth(0) / DEFAULT_PAGE_WIDTH_INCHES;
+    }
+
+    private BufferedImage toGrayscale(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return image;
+        }
+        return ImageHelper.convertImageToGrayscale(image);
+    }
+
+    //local mean thresholding, handles uneven lighting unlike a global threshold. the neighbourhood sums are kept per
+    //column for the rows of the window, which slides down a row at a time, so besides the output image only a few
+    //rows are held in memory
+    private BufferedImage adaptiveThreshold(BufferedImage gray) {
+        int width = gray.getWidth();
+        int height = gray.getHeight();
+        int radius = Math.max(Math.min(width, height) / 40, 4);
+        WritableRaster source = gray.getRaster();
+        BufferedImage binary = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster target = binary.getRaster();
+
+        int[] row = new int[width];
+        int[] output = new int[width];
+        long[] columnSums = new long[width];
+        long[] prefix = new long[width + 1];
+        //the first window, rows 0..radius-1 (row y+radius is added for every y)
+        for (int y = 0; y < Math.min(radius, height); y++) {
+            addRow(source, y, row, columnSums, 1);
+        }
+        for (int y = 0; y < height; y++) {
+            if (y + radius < height) {
+                addRow(source, y + radius, row, columnSums, 1);
+            }
+            if (y - radius - 1 >= 0) {
+                addRow(source, y - radius - 1, row, columnSums, -1);
+            }
+            int rows = Math.min(y + radius + 1, height) - Math.max(y - radius, 0);
+            for (int x = 0; x < width; x++) {
+                prefix[x + 1] = prefix[x] + columnSums[x];
+            }
+            source.getSamples(0, y, width, 1, 0, row);
+            for (int x = 0; x < width; x++) {
+                int x0 = Math.max(x - radius, 0);
+                int x1 = Math.min(x + radius + 1, width);
+                double mean = (double) (prefix[x1] - prefix[x0]) / ((x1 - x0) * rows);
+                output[x] = row[x] < mean * (1 - THRESHOLD_K) ? 0 : 255;
+            }
+            target.setSamples(0, y, width, 1, 0, output);
+        }
+        return binary;
+    }
+
+    private static void addRow(WritableRaster source, int y, int[] row, long[] columnSums, int sign) {
+        source.getSamples(0, y, source.getWidth(), 1, 0, row);
+        for (int x = 0; x < row.length; x++) {
+            columnSums[x] += sign * row[x];
+        }
+    }
+
+    private BufferedImage deskew(BufferedImage image) {
+        double angle = new ImageDeskew(image).getSkewAngle();
+        if (Math.abs(angle) < MIN_SKEW_ANGLE) {
+            return image;
+        }
+        return ImageHelper.rotateImage(image, -angle);
+    }
+}
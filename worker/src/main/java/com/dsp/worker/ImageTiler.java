@@ -0,0 +1,380 @@
+package com.dsp.worker;
+
+import com.dsp.utils.GeneralUtils;
+import net.sourceforge.tess4j.util.ImageHelper;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+//OCR of very large images (posters, big scans) tile by tile, so the whole image is never decoded at once.
+//the image is split into a grid of tiles, every tile owns a core region and is decoded with an overlap around it,
+//so a line cut by the core border is still whole in one of the tiles. only the lines whose center is inside the
+//core of their tile are kept.
+//a tile row is decoded in bands as wide as the memory budget allows (the whole row when it fits), since a reader
+//decodes the rows above a region again for every read, and the tiles of a band are cut from it after the grayscale
+//conversion. the tiles are OCR'd concurrently while the next band is decoded, as long as the bands fit in the budget.
+//the lines of all the tiles are stitched in page coordinates: the parts of a line cut by a tile border are joined,
+//and the lines are ordered top to bottom, left to right.
+//every tile is OCR'd in a slot of the slot limiter, the caller gives its own slot to the tiles while it waits for them,
+//so a tiled image never runs more engines than the (adaptive) slots limit
+public class ImageTiler {
+
+    //decoded tile bytes per pixel, the reader may decode to 4 byte rgb before the grayscale conversion
+    private static final int BYTES_PER_PIXEL = 4;
+
+    //a band of a tile row, decoded at once, and the OCR of its tiles
+    private static class Band {
+        //memory budget (KB) held by the band until its tiles are OCR'd
+        int permits;
+        final List<Future<List<OcrEngine.TextLine>>> tiles = new ArrayList<>();
+    }
+
+    private final OcrEnginePool enginePool;
+    private final SlotLimiter slotLimiter;
+    private final ExecutorService tileExecutor;
+    //decoded tile memory (KB) left in the budget, shared by all the tiled images on the worker
+    private final Semaphore memoryBudgetKb;
+    private final int budgetKb;
+    private final long thresholdPixels;
+    private final int tileSize;
+    private final int overlap;
+    private final GeneralUtils generalUtils;
+
+    public ImageTiler(OcrEnginePool enginePool, SlotLimiter slotLimiter, WorkerConfiguration config, GeneralUtils generalUtils) {
+        this.enginePool = enginePool;
+        this.slotLimiter = slotLimiter;
+        this.tileExecutor = Executors.newFixedThreadPool(config.getTileThreads());
+        this.budgetKb = (int) (config.getTileMemoryBytes() / 1024);
+        this.memoryBudgetKb = new Semaphore(budgetKb, true);
+        this.thresholdPixels = config.getTileThresholdPixels();
+        this.tileSize = config.getTileSize();
+        this.overlap = config.getTileOverlap();
+        this.generalUtils = generalUtils;
+    }
+
+    //true if the image is large enough to be OCR'd in tiles, only the image header is read
+    public boolean shouldTile(DownloadedImage image) {
+        try {
+            Dimension size = readSize(image);
+            return (long) size.width * size.height > thresholdPixels;
+        } catch (IOException e) {
+            return false; // let the regular OCR report the error
+        }
+    }
+
+    //OCR with engines of the profile, deadline (epoch ms) of the whole image, 0 for no deadline
+    //called in an OCR slot, which is given to the tiles until they are done
+    public String recognize(DownloadedImage image, OcrProfile profile, long deadline) throws IOException, InterruptedException {
+        slotLimiter.release();
+        try {
+            return recognizeTiles(image, profile, deadline);
+        } finally {
+            slotLimiter.reacquire();
+        }
+    }
+
+    private String recognizeTiles(DownloadedImage image, OcrProfile profile, long deadline) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        Dimension size = readSize(image);
+        int bandHeight = tileSize + 2 * overlap;
+        //tiles of a band, so the decoded band (before the grayscale conversion) fits in the memory budget
+        long bandBudgetWidth = budgetKb * 1024L / ((long) bandHeight * BYTES_PER_PIXEL) - 2L * overlap;
+        int tilesPerBand = (int) Math.max(Math.min(bandBudgetWidth / tileSize, (size.width + tileSize - 1) / tileSize), 1);
+        int bandWidth = tilesPerBand * tileSize;
+
+        ArrayDeque<Band> bands = new ArrayDeque<>();
+        List<OcrEngine.TextLine> lines = new ArrayList<>();
+        int tiles = 0;
+        int decodes = 0;
+        try {
+            for (int y = 0; y < size.height; y += tileSize) {
+                for (int bandX = 0; bandX < size.width; bandX += bandWidth) {
+                    if (deadline > 0 && System.currentTimeMillis() > deadline) {
+                        throw new OcrTimeoutException("OCR deadline passed before all the tiles were OCR'd");
+                    }
+                    Rectangle bandRegion = new Rectangle(bandX - overlap, y - overlap, bandWidth + 2 * overlap, bandHeight)
+                            .intersection(new Rectangle(size));
+                    Band band = new Band();
+                    band.permits = reserve(kilobytes((long) bandRegion.width * bandRegion.height * BYTES_PER_PIXEL), bands, lines);
+                    bands.addLast(band);
+                    BufferedImage gray = ImageHelper.convertImageToGrayscale(readRegion(image, bandRegion));
+                    decodes++;
+                    //only the grayscale band is kept while its tiles are OCR'd
+                    int grayPermits = Math.min(kilobytes((long) bandRegion.width * bandRegion.height), band.permits);
+                    memoryBudgetKb.release(band.permits - grayPermits);
+                    band.permits = grayPermits;
+                    for (int x = bandX; x < Math.min(bandX + bandWidth, size.width); x += tileSize) {
+                        Rectangle core = new Rectangle(x, y, Math.min(tileSize, size.width - x), Math.min(tileSize, size.height - y));
+                        Rectangle region = new Rectangle(core.x - overlap, core.y - overlap, core.width + 2 * overlap, core.height + 2 * overlap)
+                                .intersection(bandRegion);
+                        BufferedImage tile = gray.getSubimage(region.x - bandRegion.x, region.y - bandRegion.y, region.width, region.height);
+                        band.tiles.add(tileExecutor.submit(() -> recognizeTile(tile, core, region, profile, deadline)));
+                        tiles++;
+                    }
+                }
+            }
+            while (!bands.isEmpty()) {
+                finishBand(bands.pollFirst(), lines);
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause; // OcrTimeoutException included
+            }
+            throw new IllegalStateException("OCR of an image tile failed", cause);
+        } finally {
+            for (Band band : bands) {
+                for (Future<List<OcrEngine.TextLine>> tile : band.tiles) {
+                    tile.cancel(true);
+                }
+                memoryBudgetKb.release(band.permits);
+            }
+        }
+        generalUtils.logPrint("Tiled OCR of " + size.width + "x" + size.height + " image in " + tiles + " tiles (" + decodes
+                + " decodes) took " + (System.currentTimeMillis() - start) + "ms");
+        return stitch(lines, tileSize, overlap);
+    }
+
+    //take permits of the memory budget, waiting for the tiles of the earlier bands of the image to be OCR'd first
+    private int reserve(int permits, ArrayDeque<Band> bands, List<OcrEngine.TextLine> lines) throws InterruptedException, ExecutionException {
+        permits = Math.min(permits, budgetKb);
+        while (!memoryBudgetKb.tryAcquire(permits)) {
+            if (bands.isEmpty()) {
+                memoryBudgetKb.acquire(permits); // the budget is used by other images
+                return permits;
+            }
+            finishBand(bands.pollFirst(), lines);
+        }
+        return permits;
+    }
+
+    //wait for the tiles of the band and collect their lines, then give its memory back to the budget
+    private void finishBand(Band band, List<OcrEngine.TextLine> lines) throws InterruptedException, ExecutionException {
+        try {
+            for (Future<List<OcrEngine.TextLine>> tile : band.tiles) {
+                lines.addAll(tile.get());
+            }
+        } finally {
+            for (Future<List<OcrEngine.TextLine>> tile : band.tiles) {
+                tile.cancel(true);
+            }
+            memoryBudgetKb.release(band.permits);
+        }
+    }
+
+    private static int kilobytes(long bytes) {
+        return (int) Math.min(bytes / 1024 + 1, Integer.MAX_VALUE);
+    }
+
+    //OCR a tile and keep the text lines centered in its core, in page coordinates
+    private List<OcrEngine.TextLine> recognizeTile(BufferedImage tile, Rectangle core, Rectangle region, OcrProfile profile, long deadline) throws InterruptedException {
+        if (deadline > 0 && System.currentTimeMillis() > deadline) {
+            throw new OcrTimeoutException("OCR deadline passed before all the tiles were OCR'd");
+        }
+        List<OcrEngine.TextLine> lines;
+        slotLimiter.acquire();
+        try {
+            OcrEngine engine = enginePool.acquire(profile);
+            engine.setDeadline(deadline);
+            try {
+                lines = engine.recognizeLines(tile);
+            } finally {
+                enginePool.release(engine);
+            }
+        } finally {
+            slotLimiter.release();
+        }
+        List<OcrEngine.TextLine> kept = new ArrayList<>();
+        for (OcrEngine.TextLine line : lines) {
+            OcrEngine.TextLine pageLine = line.translate(region.x, region.y);
+            if (core.contains(pageLine.getCenterX(), pageLine.getCenterY())) {
+                kept.add(pageLine);
+            }
+        }
+        return kept;
+    }
+
+    //the text of the lines of all the tiles (in page coordinates) in reading order. the parts of a line that was cut by
+    //the border of two horizontally adjacent tiles are joined first
+    static String stitch(List<OcrEngine.TextLine> lines, int tileSize, int overlap) {
+        List<OcrEngine.TextLine> byLeft = new ArrayList<>(lines);
+        byLeft.sort(Comparator.comparingInt(OcrEngine.TextLine::getLeft));
+        List<OcrEngine.TextLine> joined = new ArrayList<>();
+        for (OcrEngine.TextLine line : byLeft) {
+            int part = -1;
+            for (int i = 0; i < joined.size() && part < 0; i++) {
+                if (continuesAcrossTiles(joined.get(i), line, tileSize, overlap)) {
+                    part = i;
+                }
+            }
+            if (part < 0) {
+                joined.add(line);
+            } else {
+                joined.set(part, join(joined.get(part), line));
+            }
+        }
+
+        //rows of lines top to bottom, a line is in the row of the first line when its center is within that line
+        joined.sort(Comparator.comparingInt(OcrEngine.TextLine::getCenterY).thenComparingInt(OcrEngine.TextLine::getLeft));
+        StringBuilder text = new StringBuilder();
+        int first = 0;
+        while (first < joined.size()) {
+            OcrEngine.TextLine rowLine = joined.get(first);
+            int last = first + 1;
+            while (last < joined.size() && joined.get(last).getCenterY() <= rowLine.getBottom()) {
+                last++;
+            }
+            List<OcrEngine.TextLine> row = new ArrayList<>(joined.subList(first, last));
+            row.sort(Comparator.comparingInt(OcrEngine.TextLine::getLeft));
+            for (OcrEngine.TextLine line : row) {
+                String lineText = line.getText().trim();
+                if (!lineText.isEmpty()) {
+                    text.append(lineText).append('\n');
+                }
+            }
+            first = last;
+        }
+        return text.toString();
+    }
+
+    //true if right is the part of the line left that continues after a vertical tile border: they share a baseline
+    //(overlap vertically), touch or overlap horizontally, and a tile border is between them
+    private static boolean continuesAcrossTiles(OcrEngine.TextLine left, OcrEngine.TextLine right, int tileSize, int overlap) {
+        int height = Math.max(Math.min(left.getHeight(), right.getHeight()), 1);
+        int verticalOverlap = Math.min(left.getBottom(), right.getBottom()) - Math.max(left.getTop(), right.getTop());
+        if (verticalOverlap * 2 < height || right.getLeft() < left.getLeft() || right.getLeft() > left.getRight() + height) {
+            return false;
+        }
+        //the join of the parts is around a border, within the overlap of the tiles
+        int reach = overlap + height;
+        for (int border = (left.getLeft() / tileSize + 1) * tileSize; border < right.getRight(); border += tileSize) {
+            if (border >= right.getLeft() - reach && border <= left.getRight() + reach) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //join the parts of a line, the text seen by both tiles (in their overlap) is kept once
+    private static OcrEngine.TextLine join(OcrEngine.TextLine left, OcrEngine.TextLine right) {
+        int top = Math.min(left.getTop(), right.getTop());
+        int bottom = Math.max(left.getBottom(), right.getBottom());
+        if (right.getRight() <= left.getRight()) {
+            return new OcrEngine.TextLine(left.getText(), left.getLeft(), top, left.getRight(), bottom); // seen whole by the left tile
+        }
+        List<String> leftWords = words(left.getText());
+        List<String> rightWords = words(right.getText());
+        //the longest run of words that ends the left part and starts the right part
+        int repeated = 0;
+        for (int k = Math.min(leftWords.size(), rightWords.size()); k > 0 && repeated == 0; k--) {
+            if (leftWords.subList(leftWords.size() - k, leftWords.size()).equals(rightWords.subList(0, k))) {
+                repeated = k;
+            }
+        }
+        if (repeated > 0) {
+            rightWords = rightWords.subList(repeated, rightWords.size());
+        } else if (right.getLeft() < left.getRight()) {
+            //no exact repeat (a word may be cut at the edge of a tile): split the overlap in the middle, by the estimated
+            //position of the words in their line
+            int middle = (right.getLeft() + left.getRight()) / 2;
+            leftWords = wordsBefore(left, leftWords, middle, true);
+            rightWords = wordsBefore(right, rightWords, middle, false);
+        }
+        List<String> all = new ArrayList<>(leftWords);
+        all.addAll(rightWords);
+        return new OcrEngine.TextLine(String.join(" ", all), left.getLeft(), top, right.getRight(), bottom);
+    }
+
+    private static List<String> words(String text) {
+        String trimmed = text.trim();
+        return trimmed.isEmpty() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(trimmed.split("\\s+")));
+    }
+
+    //the words of the line whose estimated center is before x (before = true) or not before x (before = false)
+    private static List<String> wordsBefore(OcrEngine.TextLine line, List<String> words, int x, boolean before) {
+        int chars = 0;
+        for (String word : words) {
+            chars += word.length() + 1;
+        }
+        List<String> kept = new ArrayList<>();
+        int position = 0;
+        for (String word : words) {
+            double center = line.getLeft() + (line.getRight() - line.getLeft()) * (position + word.length() / 2.0) / Math.max(chars - 1, 1);
+            if ((center < x) == before) {
+                kept.add(word);
+            }
+            position += word.length() + 1;
+        }
+        return kept;
+    }
+
+    private Dimension readSize(DownloadedImage image) throws IOException {
+        try (ImageInputStream stream = openStream(image)) {
+            ImageReader reader = getReader(stream);
+            try {
+                reader.setInput(stream, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    //a new reader for every band, a reader can't be shared between threads
+    private BufferedImage readRegion(DownloadedImage image, Rectangle region) throws IOException {
+        try (ImageInputStream stream = openStream(image)) {
+            ImageReader reader = getReader(stream);
+            try {
+                reader.setInput(stream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(region);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static ImageInputStream openStream(DownloadedImage image) throws IOException {
+        ImageInputStream stream = image.isSpilled()
+                ? ImageIO.createImageInputStream(image.getFile())
+                : ImageIO.createImageInputStream(new ByteArrayInputStream(image.getBytes()));
+        if (stream == null) {
+            throw new IOException("Image can't be read");
+        }
+        return stream;
+    }
+
+    private static ImageReader getReader(ImageInputStream stream) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext()) {
+            throw new IOException("No image reader found");
+        }
+        return readers.next();
+    }
+
+    public void close() {
+        tileExecutor.shutdownNow();
+    }
+}
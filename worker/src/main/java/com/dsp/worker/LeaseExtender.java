@@ -0,0 +1,71 @@
+package com.dsp.worker;
+
+import com.dsp.aws.SQSClient;
+import com.dsp.utils.GeneralUtils;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+//keeps the in-flight task messages invisible while the worker handles them:
+//runs periodically and extends the visibility timeout of every message that wasn't acknowledged yet,
+//so a long download/OCR doesn't make the task visible again to other workers
+public class LeaseExtender implements Runnable {
+
+    private static final int BATCH_SIZE = 10;
+
+    private final SQSClient sqs;
+    private final String queueUrl;
+    private final int visibilityTimeout;
+    private final GeneralUtils generalUtils;
+    private final Set<String> inFlightReceipts;
+
+    public LeaseExtender(SQSClient sqs, String queueUrl, int visibilityTimeout, GeneralUtils generalUtils) {
+        this.sqs = sqs;
+        this.queueUrl = queueUrl;
+        this.visibilityTimeout = visibilityTimeout;
+        this.generalUtils = generalUtils;
+        this.inFlightReceipts = ConcurrentHashMap.newKeySet();
+    }
+
+    //start extending the visibility of a received message
+    public void register(Message m) {
+        inFlightReceipts.add(m.receiptHandle());
+    }
+
+    //stop extending the visibility of a message, once it is acknowledged or its handling failed
+    public void complete(Message m) {
+        inFlightReceipts.remove(m.receiptHandle());
+    }
+
+    public int size() {
+        return inFlightReceipts.size();
+    }
+
+    @Override
+    public void run() {
+        try {
+            extendAll();
+        } catch (Exception e) {
+            // never let an exception cancel the periodic task
+            GeneralUtils.printStackTrace(e, generalUtils);
+        }
+    }
+
+    private void extendAll() {
+        List<String> receipts = new ArrayList<>(inFlightReceipts);
+        for (int i = 0; i < receipts.size(); i += BATCH_SIZE) {
+            List<String> batch = receipts.subList(i, Math.min(i + BATCH_SIZE, receipts.size()));
+            List<String> failed = sqs.changeVisibilityBatch(queueUrl, visibilityTimeout, batch);
+            //a failed receipt is either already deleted or expired, there is no point in retrying it
+            for (String receipt : failed) {
+                inFlightReceipts.remove(receipt);
+            }
+        }
+        if (!receipts.isEmpty()) {
+            generalUtils.logPrint("Extended visibility of " + receipts.size() + " in-flight tasks");
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.dsp.worker;
+
+import com.ochafik.lang.jnaerator.runtime.NativeSize;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import net.sourceforge.lept4j.Leptonica1;
+import net.sourceforge.lept4j.Pix;
+import net.sourceforge.lept4j.util.LeptUtils;
+import net.sourceforge.tess4j.ITessAPI;
+import net.sourceforge.tess4j.ITessAPI.ETEXT_DESC;
+import net.sourceforge.tess4j.ITessAPI.TessBaseAPI;
+import net.sourceforge.tess4j.ITessAPI.TessPageIterator;
+import net.sourceforge.tess4j.ITessAPI.TessPageIteratorLevel;
+import net.sourceforge.tess4j.ITessAPI.TessResultIterator;
+import net.sourceforge.tess4j.TessAPI1;
+import net.sourceforge.tess4j.util.ImageHelper;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+//long lived tesseract engine: the native TessBaseAPI handle is initialised (traineddata loaded) once and reused
+//for every image, unlike Tesseract.doOCR which initialises and disposes the native api on every call.
+//an engine is not thread safe, it is used by a single slot at a time (see OcrEnginePool).
+//recognition can be given a deadline, tesseract cancels it once the deadline passed and the engine is then discarded
+public class OcrEngine {
+
+    private final OcrProfile profile;
+    private TessBaseAPI handle;
+    //wall clock deadline (ms) of the recognitions, 0 for no deadline
+    private long deadline;
+    private boolean cancelled;
+    //polled by tesseract during recognition, kept in a field so it isn't garbage collected while in use
+    private final ITessAPI.CANCEL_FUNC cancelFunction = (cancelThis, words) -> deadline > 0 && System.currentTimeMillis() > deadline;
+
+    public OcrEngine(String datapath) {
+        this(datapath, OcrProfile.DEFAULT);
+    }
+
+    //load the traineddata of the profile languages, in the profile engine mode
+    public OcrEngine(String datapath, OcrProfile profile) {
+        this.profile = profile;
+        handle = TessAPI1.TessBaseAPICreate();
+        int engineMode = profile.getEngineMode() >= 0 ? profile.getEngineMode() : ITessAPI.TessOcrEngineMode.OEM_DEFAULT;
+        if (TessAPI1.TessBaseAPIInit2(handle, datapath, profile.getLanguages(), engineMode) != 0) {
+            TessAPI1.TessBaseAPIDelete(handle);
+            handle = null;
+            throw new IllegalStateException("Could not initialize tesseract with datapath " + datapath + " and profile " + profile);
+        }
+        if (profile.getPageSegMode() >= 0) {
+            TessAPI1.TessBaseAPISetPageSegMode(handle, profile.getPageSegMode());
+        }
+    }
+
+    //an engine without a native handle, for tests
+    OcrEngine(OcrProfile profile) {
+        this.profile = profile;
+    }
+
+    public OcrProfile getProfile() {
+        return profile;
+    }
+
+    //apply OCR on an image file, the image is read by leptonica directly into native memory
+    public String recognize(File imageFile) {
+        Pix pix = Leptonica1.pixRead(imageFile.getPath());
+        if (pix == null) {
+            throw new IllegalArgumentException("Could not read image " + imageFile.getPath());
+        }
+        return recognize(pix);
+    }
+
+    //apply OCR on the encoded bytes of an image, decoded by leptonica in memory without touching the disk
+    public String recognize(byte[] encodedImage) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(encodedImage.length);
+        buffer.put(encodedImage);
+        buffer.flip();
+        Pix pix = Leptonica1.pixReadMem(buffer, new NativeSize(encodedImage.length));
+        if (pix == null) {
+            throw new IllegalArgumentException("Could not decode image of " + encodedImage.length + " bytes");
+        }
+        return recognize(pix);
+    }
+
+    //apply OCR on an already decoded (preprocessed) image
+    public String recognize(BufferedImage image) {
+        setImage(image);
+        return getText();
+    }
+
+    //apply OCR on a decoded image and return its text lines with their bounding boxes (in image coordinates)
+    public List<TextLine> recognizeLines(BufferedImage image) {
+        setImage(image);
+        try {
+            recognizeUntilDeadline();
+            List<TextLine> lines = new ArrayList<>();
+            TessResultIterator iterator = TessAPI1.TessBaseAPIGetIterator(handle);
+            if (iterator == null) {
+                return lines; // no text found
+            }
+            try {
+                TessPageIterator pageIterator = TessAPI1.TessResultIteratorGetPageIterator(iterator);
+                IntBuffer left = IntBuffer.allocate(1);
+                IntBuffer top = IntBuffer.allocate(1);
+                IntBuffer right = IntBuffer.allocate(1);
+                IntBuffer bottom = IntBuffer.allocate(1);
+                do {
+                    Pointer textPointer = TessAPI1.TessResultIteratorGetUTF8Text(iterator, TessPageIteratorLevel.RIL_TEXTLINE);
+                    if (textPointer == null) {
+                        continue;
+                    }
+                    String text = textPointer.getString(0, "UTF-8");
+                    TessAPI1.TessDeleteText(textPointer);
+                    TessAPI1.TessPageIteratorBoundingBox(pageIterator, TessPageIteratorLevel.RIL_TEXTLINE, left, top, right, bottom);
+                    lines.add(new TextLine(text, left.get(0), top.get(0), right.get(0), bottom.get(0)));
+                } while (TessAPI1.TessPageIteratorNext(pageIterator, TessPageIteratorLevel.RIL_TEXTLINE) == ITessAPI.TRUE);
+            } finally {
+                TessAPI1.TessResultIteratorDelete(iterator);
+            }
+            return lines;
+        } finally {
+            TessAPI1.TessBaseAPIClear(handle);
+        }
+    }
+
+    //hand a decoded image to tesseract as 8 bit grayscale pixels
+    private void setImage(BufferedImage image) {
+        BufferedImage gray = image.getType() == BufferedImage.TYPE_BYTE_GRAY ? image : ImageHelper.convertImageToGrayscale(image);
+        int width = gray.getWidth();
+        int height = gray.getHeight();
+        byte[] pixels = (byte[]) gray.getRaster().getDataElements(0, 0, width, height, null);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(pixels.length);
+        buffer.put(pixels);
+        buffer.flip();
+        TessAPI1.TessBaseAPISetImage(handle, buffer, width, height, 1, width);
+    }
+
+    public String recognize(DownloadedImage image) {
+        return image.isSpilled() ? recognize(image.getFile()) : recognize(image.getBytes());
+    }
+
+    private String recognize(Pix pix) {
+        try {
+            TessAPI1.TessBaseAPISetImage2(handle, pix);
+            return getText();
+        } finally {
+            LeptUtils.disposePix(pix);
+        }
+    }
+
+    //run the recognition of the current image, cancelled by tesseract when the deadline passes
+    private void recognizeUntilDeadline() {
+        ETEXT_DESC monitor = null;
+        if (deadline > 0) {
+            checkDeadline();
+            monitor = new ETEXT_DESC();
+            monitor.cancel = cancelFunction;
+            monitor.end_time.tv_sec = new NativeLong(deadline / 1000);
+            monitor.end_time.tv_usec = new NativeLong((deadline % 1000) * 1000);
+        }
+        int status = TessAPI1.TessBaseAPIRecognize(handle, monitor);
+        if (deadline > 0) {
+            checkDeadline();
+        }
+        if (status != 0) {
+            throw new IllegalStateException("OCR failed, recognize returned an error");
+        }
+    }
+
+    private void checkDeadline() {
+        if (System.currentTimeMillis() > deadline) {
+            cancelled = true;
+            throw new OcrTimeoutException("OCR deadline passed");
+        }
+    }
+
+    private String getText() {
+        Pointer textPointer = null;
+        try {
+            recognizeUntilDeadline();
+            textPointer = TessAPI1.TessBaseAPIGetUTF8Text(handle);
+            if (textPointer == null) {
+                throw new IllegalStateException("OCR failed, no text returned");
+            }
+            return textPointer.getString(0, "UTF-8");
+        } finally {
+            if (textPointer != null) {
+                TessAPI1.TessDeleteText(textPointer);
+            }
+            TessAPI1.TessBaseAPIClear(handle); // free the page results, keep the loaded traineddata
+        }
+    }
+
+    //deadline (epoch ms) of the following recognitions, 0 for no deadline
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    //true if a recognition was cancelled, the engine shouldn't be reused
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    //a recognized line of text and its bounding box
+    public static class TextLine {
+        private final String text;
+        private final int left;
+        private final int top;
+        private final int right;
+        private final int bottom;
+
+        public TextLine(String text, int left, int top, int right, int bottom) {
+            this.text = text;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public int getLeft() {
+            return left;
+        }
+
+        public int getTop() {
+            return top;
+        }
+
+        public int getRight() {
+            return right;
+        }
+
+        public int getBottom() {
+            return bottom;
+        }
+
+        public int getHeight() {
+            return bottom - top;
+        }
+
+        //the same line in the coordinates of an enclosing image, the image starts at (dx, dy) of the enclosing image
+        public TextLine translate(int dx, int dy) {
+            return new TextLine(text, left + dx, top + dy, right + dx, bottom + dy);
+        }
+
+        public int getCenterX() {
+            return (left + right) / 2;
+        }
+
+        public int getCenterY() {
+            return (top + bottom) / 2;
+        }
+    }
+
+    //release the native handle, the engine can't be used afterwards
+    public void close() {
+        if (handle != null) {
+            TessAPI1.TessBaseAPIEnd(handle);
+            TessAPI1.TessBaseAPIDelete(handle);
+            handle = null;
+        }
+    }
+}
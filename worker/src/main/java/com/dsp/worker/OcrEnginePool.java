@@ -0,0 +1,148 @@
+package com.dsp.worker;
+
+import com.dsp.utils.GeneralUtils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//bounded pool of OCR engines, an engine is used by a single slot (thread) at a time.
+//an engine is initialised for one OCR profile (languages, modes, traineddata), idle engines are kept per profile
+//in least recently used order, so jobs with different profiles don't reload traineddata on every switch.
+//when the pool is full, an idle engine of the least recently used profile is closed to make room.
+//the native handles of the engines stay initialised until they are dropped from the pool or the pool is closed
+public class OcrEnginePool {
+
+    private final int capacity;
+    private final String datapath;
+    private final String fastDatapath;
+    private final String accurateDatapath;
+    private final GeneralUtils generalUtils;
+    //idle engines by profile, in access order (least recently used profile first)
+    private final LinkedHashMap<OcrProfile, Deque<OcrEngine>> idleEngines;
+    private int createdEngines;
+    private boolean closed;
+
+    public OcrEnginePool(int capacity, String datapath) {
+        this(capacity, datapath, null, null, null);
+    }
+
+    //fastDatapath and accurateDatapath are the traineddata directories of the presets, null to use datapath
+    public OcrEnginePool(int capacity, String datapath, String fastDatapath, String accurateDatapath, GeneralUtils generalUtils) {
+        this.capacity = capacity;
+        this.datapath = datapath;
+        this.fastDatapath = fastDatapath;
+        this.accurateDatapath = accurateDatapath;
+        this.generalUtils = generalUtils;
+        idleEngines = new LinkedHashMap<>(16, 0.75f, true);
+        createdEngines = 0;
+        closed = false;
+    }
+
+    //get an idle engine of the default profile
+    public OcrEngine acquire() throws InterruptedException {
+        return acquire(OcrProfile.DEFAULT);
+    }
+
+    //get an idle engine of the profile, creates a new one if the pool is not full yet (or if an idle engine of another
+    //profile can be closed instead), otherwise waits for a released engine
+    public OcrEngine acquire(OcrProfile profile) throws InterruptedException {
+        synchronized (this) {
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("OCR engine pool is closed");
+                }
+                Deque<OcrEngine> idle = idleEngines.get(profile);
+                if (idle != null) {
+                    OcrEngine engine = idle.pop();
+                    if (idle.isEmpty()) {
+                        idleEngines.remove(profile);
+                    }
+                    return engine;
+                }
+                if (createdEngines < capacity || closeLeastRecentlyUsed()) {
+                    createdEngines++;
+                    break;
+                }
+                wait();
+            }
+        }
+        //load the traineddata outside the lock, it takes a while
+        try {
+            long start = System.currentTimeMillis();
+            OcrEngine engine = createEngine(getDatapath(profile), profile);
+            if (generalUtils != null) {
+                generalUtils.logPrint("OCR engine loaded for profile " + profile + " in " + (System.currentTimeMillis() - start) + "ms");
+            }
+            return engine;
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                createdEngines--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    OcrEngine createEngine(String datapath, OcrProfile profile) {
+        return new OcrEngine(datapath, profile);
+    }
+
+    private String getDatapath(OcrProfile profile) {
+        if (OcrProfile.FAST.equals(profile.getPreset()) && fastDatapath != null) {
+            return fastDatapath;
+        }
+        if (OcrProfile.ACCURATE.equals(profile.getPreset()) && accurateDatapath != null) {
+            return accurateDatapath;
+        }
+        return datapath;
+    }
+
+    //return an engine to the pool, an engine whose recognition was cancelled is closed and replaced by a new one
+    public synchronized void release(OcrEngine engine) {
+        engine.setDeadline(0);
+        if (closed || engine.isCancelled()) {
+            engine.close();
+            createdEngines--;
+        } else {
+            idleEngines.computeIfAbsent(engine.getProfile(), profile -> new ArrayDeque<>()).push(engine);
+        }
+        notifyAll();
+    }
+
+    //close an idle engine of the least recently used profile, returns false if there is no idle engine
+    private boolean closeLeastRecentlyUsed() {
+        Iterator<Map.Entry<OcrProfile, Deque<OcrEngine>>> profiles = idleEngines.entrySet().iterator();
+        if (!profiles.hasNext()) {
+            return false;
+        }
+        Map.Entry<OcrProfile, Deque<OcrEngine>> leastRecentlyUsed = profiles.next();
+        leastRecentlyUsed.getValue().pollLast().close();
+        if (leastRecentlyUsed.getValue().isEmpty()) {
+            profiles.remove();
+        }
+        createdEngines--;
+        return true;
+    }
+
+    //drop idle engines (least recently used profiles first) until at most maxEngines exist,
+    //so a shrinking slot count also frees native memory
+    public synchronized void retainAtMost(int maxEngines) {
+        while (createdEngines > maxEngines && closeLeastRecentlyUsed()) {
+            // keep closing
+        }
+    }
+
+    public synchronized int size() {
+        return createdEngines;
+    }
+
+    //close all idle engines now, engines in use are closed when they are released
+    public synchronized void close() {
+        closed = true;
+        retainAtMost(0);
+        notifyAll();
+    }
+}
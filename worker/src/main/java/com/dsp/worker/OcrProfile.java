@@ -0,0 +1,98 @@
+package com.dsp.worker;
+
+//tesseract settings requested by a job, parsed from the "OcrProfile" message attribute,
+//a comma separated list of settings, for example "lang=eng+deu,oem=1,psm=6,preset=fast":
+//lang - traineddata languages joined by '+', oem - engine mode, psm - page segmentation mode,
+//preset - fast or accurate, which selects the fast or best traineddata directory of the worker
+public class OcrProfile {
+
+    public static final String FAST = "fast";
+    public static final String ACCURATE = "accurate";
+    public static final OcrProfile DEFAULT = new OcrProfile("eng", -1, -1, null);
+
+    private final String languages;
+    private final int engineMode;
+    private final int pageSegMode;
+    private final String preset;
+
+    public OcrProfile(String languages, int engineMode, int pageSegMode, String preset) {
+        this.languages = languages;
+        this.engineMode = engineMode;
+        this.pageSegMode = pageSegMode;
+        this.preset = preset;
+    }
+
+    //unknown or invalid settings are ignored, a missing or empty value means the default profile
+    public static OcrProfile parse(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT;
+        }
+        String languages = DEFAULT.languages;
+        int engineMode = -1;
+        int pageSegMode = -1;
+        String preset = null;
+        for (String setting : value.split(",")) {
+            setting = setting.trim();
+            if (setting.startsWith("lang=")) {
+                String lang = setting.substring(5);
+                if (lang.matches("[A-Za-z0-9_]+(\\+[A-Za-z0-9_]+)*")) { // traineddata names only, they are file names
+                    languages = lang;
+                }
+            } else if (setting.startsWith("oem=")) {
+                engineMode = parseMode(setting.substring(4), 3);
+            } else if (setting.startsWith("psm=")) {
+                pageSegMode = parseMode(setting.substring(4), 13);
+            } else if (setting.equalsIgnoreCase("preset=" + FAST)) {
+                preset = FAST;
+            } else if (setting.equalsIgnoreCase("preset=" + ACCURATE)) {
+                preset = ACCURATE;
+            }
+        }
+        return new OcrProfile(languages, engineMode, pageSegMode, preset);
+    }
+
+    private static int parseMode(String value, int max) {
+        try {
+            int mode = Integer.parseInt(value.trim());
+            return mode >= 0 && mode <= max ? mode : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public String getLanguages() {
+        return languages;
+    }
+
+    //-1 means tesseract's default
+    public int getEngineMode() {
+        return engineMode;
+    }
+
+    //-1 means tesseract's default
+    public int getPageSegMode() {
+        return pageSegMode;
+    }
+
+    //fast, accurate or null
+    public String getPreset() {
+        return preset;
+    }
+
+    //canonical form, used as the engines pool key and in the results cache key
+    @Override
+    public String toString() {
+        return "lang=" + languages + (engineMode >= 0 ? ",oem=" + engineMode : "") + (pageSegMode >= 0 ? ",psm=" + pageSegMode : "")
+                + (preset != null ? ",preset=" + preset : "");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof OcrProfile && toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -0,0 +1,160 @@
+package com.dsp.worker;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+//a single url task moving through the worker pipeline stages (prefetch -> OCR -> publish)
+public class OcrTask {
+
+    private final Message message;
+    private final String localAppID;
+    private final String url;
+    private final PreprocessOptions preprocessOptions;
+    private final OcrProfile profile;
+    //pages [pageStart, pageEnd) of a document fanned out by the manager, -1 for a whole image or document
+    private final int pageStart;
+    private final int pageEnd;
+    //OCR time budget of the task from the TimeoutSeconds attribute, 0 if the task has none
+    private final int timeoutSeconds;
+    //wall clock time (epoch ms) the OCR of the task must end by, 0 for no deadline
+    private long deadline;
+    private DownloadedImage image;
+    private String result;
+    private String errorMessage;
+    //number of pages of a document that should be fanned out as sub tasks, 0 if the task isn't split
+    private int splitPageCount;
+
+    public OcrTask(Message message) {
+        this.message = message;
+        this.localAppID = message.messageAttributes().get("LocalAppID").stringValue();
+        this.url = message.body();
+        MessageAttributeValue preprocess = message.messageAttributes().get("Preprocess");
+        this.preprocessOptions = PreprocessOptions.parse(preprocess == null ? null : preprocess.stringValue());
+        MessageAttributeValue profile = message.messageAttributes().get("OcrProfile");
+        this.profile = OcrProfile.parse(profile == null ? null : profile.stringValue());
+        MessageAttributeValue timeout = message.messageAttributes().get("TimeoutSeconds");
+        this.timeoutSeconds = parseTimeout(timeout == null ? null : timeout.stringValue());
+        MessageAttributeValue pageRange = message.messageAttributes().get("PageRange");
+        if (pageRange != null) {
+            String[] range = pageRange.stringValue().split("-");
+            this.pageStart = Integer.parseInt(range[0]);
+            this.pageEnd = Integer.parseInt(range[1]);
+        } else {
+            this.pageStart = -1;
+            this.pageEnd = -1;
+        }
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public String getLocalAppID() {
+        return localAppID;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public PreprocessOptions getPreprocessOptions() {
+        return preprocessOptions;
+    }
+
+    public OcrProfile getProfile() {
+        return profile;
+    }
+
+    private static int parseTimeout(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(Integer.parseInt(value.trim()), 0);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    //start the OCR time budget of the task, the task attribute or the worker default if the task has none
+    public void startDeadline(int defaultTimeoutSeconds) {
+        int seconds = getTimeoutSeconds(defaultTimeoutSeconds);
+        deadline = seconds > 0 ? System.currentTimeMillis() + seconds * 1000L : 0;
+    }
+
+    public int getTimeoutSeconds(int defaultTimeoutSeconds) {
+        return timeoutSeconds > 0 ? timeoutSeconds : defaultTimeoutSeconds;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    //true if the task is a page range of a document fanned out by the manager
+    public boolean isDocumentPart() {
+        return pageStart >= 0;
+    }
+
+    public int getPageStart() {
+        return pageStart;
+    }
+
+    public int getPageEnd() {
+        return pageEnd;
+    }
+
+    //the document is too long for a single task, the manager is asked to fan out its pages as sub tasks
+    public void split(int pageCount) {
+        this.splitPageCount = pageCount;
+    }
+
+    public boolean isSplit() {
+        return splitPageCount > 0;
+    }
+
+    public int getSplitPageCount() {
+        return splitPageCount;
+    }
+
+    public DownloadedImage getImage() {
+        return image;
+    }
+
+    public void setImage(DownloadedImage image) {
+        this.image = image;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public void setResult(String result) {
+        this.result = result;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    //results cache key of the downloaded image
+    public String getCacheKey() {
+        String pages = isDocumentPart() ? "|pages=" + pageStart + "-" + pageEnd : "";
+        return ResultCache.key(image.getDigest(), profile + "|" + preprocessOptions + pages);
+    }
+
+    //mark the task as failed, the manager gets a WORKER EXCEPTION result with this summary
+    public void fail(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public boolean isFailed() {
+        return errorMessage != null;
+    }
+
+    //release the downloaded image, returns false if its spill file can't be deleted
+    public boolean disposeImage() {
+        boolean disposed = image == null || image.dispose();
+        image = null;
+        return disposed;
+    }
+}
@@ -0,0 +1,9 @@
+package com.dsp.worker;
+
+//thrown when the OCR of a task didn't finish before the task deadline
+public class OcrTimeoutException extends RuntimeException {
+
+    public OcrTimeoutException(String message) {
+        super(message);
+    }
+}
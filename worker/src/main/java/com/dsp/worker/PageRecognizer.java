@@ -0,0 +1,147 @@
+package com.dsp.worker;
+
+import com.dsp.utils.GeneralUtils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//OCR of the pages of a multi-page document in parallel, every page with an engine of the engines pool.
+//the text of the pages is returned in page order.
+//every page is OCR'd in a slot of the slot limiter, the caller gives its own slot to the pages while it waits for them.
+//recognize() returns only when no page of the call is still rendering or OCR'ing, so the caller can close the document
+public class PageRecognizer {
+
+    private final OcrEnginePool enginePool;
+    private final SlotLimiter slotLimiter;
+    private final ExecutorService pageExecutor;
+    private final GeneralUtils generalUtils;
+
+    public PageRecognizer(OcrEnginePool enginePool, SlotLimiter slotLimiter, WorkerConfiguration config, GeneralUtils generalUtils) {
+        this.enginePool = enginePool;
+        this.slotLimiter = slotLimiter;
+        this.pageExecutor = Executors.newFixedThreadPool(config.getPageThreads());
+        this.generalUtils = generalUtils;
+    }
+
+    //OCR pages [firstPage, endPage) of the document with engines of the profile, before the deadline (epoch ms), 0 for no deadline
+    //called in an OCR slot, which is given to the pages until they are done
+    public String recognize(PagedDocument document, int firstPage, int endPage, OcrProfile profile, long deadline) throws IOException, InterruptedException {
+        slotLimiter.release();
+        try {
+            return recognizePages(document, firstPage, endPage, profile, deadline);
+        } finally {
+            slotLimiter.reacquire();
+        }
+    }
+
+    private String recognizePages(PagedDocument document, int firstPage, int endPage, OcrProfile profile, long deadline) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        PageTasks tasks = new PageTasks();
+        List<Future<String>> pages = new ArrayList<>();
+        for (int page = firstPage; page < endPage; page++) {
+            int index = page;
+            pages.add(pageExecutor.submit(() -> tasks.run(() -> recognizePage(document, index, profile, deadline))));
+        }
+        StringBuilder text = new StringBuilder();
+        try {
+            for (Future<String> page : pages) {
+                text.append(page.get()).append('\n');
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause; // OcrTimeoutException included
+            }
+            throw new IllegalStateException("OCR of a document page failed", cause);
+        } finally {
+            tasks.stop();
+            for (Future<String> page : pages) {
+                page.cancel(true);
+            }
+            //a cancelled page may still be rendering the document, which is closed once this returns
+            tasks.awaitFinished();
+        }
+        generalUtils.logPrint("OCR of pages " + firstPage + "-" + endPage + " of a " + document.getPageCount() + " pages document took "
+                + (System.currentTimeMillis() - start) + "ms");
+        return text.toString();
+    }
+
+    private String recognizePage(PagedDocument document, int page, OcrProfile profile, long deadline) throws IOException, InterruptedException {
+        if (deadline > 0 && System.currentTimeMillis() > deadline) {
+            throw new OcrTimeoutException("OCR deadline passed before all the pages were OCR'd");
+        }
+        slotLimiter.acquire();
+        try {
+            BufferedImage image = document.renderPage(page);
+            OcrEngine engine = enginePool.acquire(profile);
+            engine.setDeadline(deadline);
+            try {
+                return engine.recognize(image);
+            } finally {
+                enginePool.release(engine);
+            }
+        } finally {
+            slotLimiter.release();
+        }
+    }
+
+    interface PageTask {
+        String call() throws IOException, InterruptedException;
+    }
+
+    //the page tasks of one recognize() call: counts the running ones, and once stopped the queued ones don't start
+    private static class PageTasks {
+        private int running;
+        private boolean stopped;
+
+        String run(PageTask task) throws IOException, InterruptedException {
+            synchronized (this) {
+                if (stopped) {
+                    throw new CancellationException();
+                }
+                running++;
+            }
+            try {
+                return task.call();
+            } finally {
+                synchronized (this) {
+                    running--;
+                    notifyAll();
+                }
+            }
+        }
+
+        synchronized void stop() {
+            stopped = true;
+        }
+
+        //waits even if interrupted (the interrupt is kept), the document must not be closed under a running page
+        synchronized void awaitFinished() {
+            boolean interrupted = false;
+            while (running > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public void close() {
+        pageExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,121 @@
+package com.dsp.worker;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+//a downloaded multi-page document, a pdf or a multi-page tiff, rendered page by page.
+//pages are rendered one at a time (the pdf document and the tiff reader are not thread safe),
+//the OCR of the rendered pages can run concurrently
+public class PagedDocument {
+
+    private static final byte[] PDF_MAGIC = "%PDF".getBytes(StandardCharsets.US_ASCII);
+
+    private final PDDocument pdf;
+    private final PDFRenderer renderer;
+    private final ImageInputStream stream;
+    private final ImageReader reader;
+    private final int pageCount;
+    private final int dpi;
+
+    private PagedDocument(PDDocument pdf, int dpi) {
+        this.pdf = pdf;
+        this.renderer = new PDFRenderer(pdf);
+        this.stream = null;
+        this.reader = null;
+        this.pageCount = pdf.getNumberOfPages();
+        this.dpi = dpi;
+    }
+
+    private PagedDocument(ImageInputStream stream, ImageReader reader, int pageCount) {
+        this.pdf = null;
+        this.renderer = null;
+        this.stream = stream;
+        this.reader = reader;
+        this.pageCount = pageCount;
+        this.dpi = 0;
+    }
+
+    //opens the image as a document if it is a pdf or a tiff of more than one page, returns null for any other image.
+    //pdf pages are rendered at the given dpi
+    public static PagedDocument open(DownloadedImage image, int dpi) throws IOException {
+        if (isPdf(image)) {
+            PDDocument pdf = image.isSpilled() ? PDDocument.load(image.getFile()) : PDDocument.load(image.getBytes());
+            return new PagedDocument(pdf, dpi);
+        }
+        ImageInputStream stream = image.isSpilled()
+                ? ImageIO.createImageInputStream(image.getFile())
+                : ImageIO.createImageInputStream(new ByteArrayInputStream(image.getBytes()));
+        if (stream == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (readers.hasNext()) {
+            ImageReader reader = readers.next();
+            if (reader.getFormatName().toLowerCase().startsWith("tif")) {
+                reader.setInput(stream, false, true);
+                int pageCount = reader.getNumImages(true);
+                if (pageCount > 1) {
+                    return new PagedDocument(stream, reader, pageCount);
+                }
+            }
+            reader.dispose();
+        }
+        stream.close();
+        return null;
+    }
+
+    //pdf files start with %PDF
+    public static boolean isPdf(DownloadedImage image) {
+        byte[] header = new byte[PDF_MAGIC.length];
+        if (image.isSpilled()) {
+            try (InputStream in = new FileInputStream(image.getFile())) {
+                if (in.read(header) != header.length) {
+                    return false;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        } else if (image.getBytes().length >= header.length) {
+            System.arraycopy(image.getBytes(), 0, header, 0, header.length);
+        }
+        return Arrays.equals(header, PDF_MAGIC);
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    //render a page (0 based) to a grayscale image
+    public synchronized BufferedImage renderPage(int page) throws IOException {
+        if (pdf != null) {
+            return renderer.renderImageWithDPI(page, dpi, ImageType.GRAY);
+        }
+        return reader.read(page);
+    }
+
+    public synchronized void close() {
+        try {
+            if (pdf != null) {
+                pdf.close();
+            } else {
+                reader.dispose();
+                stream.close();
+            }
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.dsp.worker;
+
+//image preprocessing steps requested by a job, parsed from the "Preprocess" message attribute,
+//a comma separated list of steps, for example "dpi=300,grayscale,threshold,deskew"
+public class PreprocessOptions {
+
+    public static final PreprocessOptions NONE = new PreprocessOptions(0, false, false, false);
+
+    private final int targetDpi;
+    private final boolean grayscale;
+    private final boolean threshold;
+    private final boolean deskew;
+
+    public PreprocessOptions(int targetDpi, boolean grayscale, boolean threshold, boolean deskew) {
+        this.targetDpi = targetDpi;
+        this.grayscale = grayscale;
+        this.threshold = threshold;
+        this.deskew = deskew;
+    }
+
+    //unknown steps are ignored, a missing or empty value means no preprocessing
+    public static PreprocessOptions parse(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return NONE;
+        }
+        int targetDpi = 0;
+        boolean grayscale = false;
+        boolean threshold = false;
+        boolean deskew = false;
+        for (String step : value.split(",")) {
+            step = step.trim().toLowerCase();
+            if (step.startsWith("dpi=")) {
+                try {
+                    targetDpi = Math.max(Integer.parseInt(step.substring(4)), 0);
+                } catch (NumberFormatException e) {
+                    targetDpi = 0;
+                }
+            } else if (step.equals("grayscale")) {
+                grayscale = true;
+            } else if (step.equals("threshold")) {
+                threshold = true;
+            } else if (step.equals("deskew")) {
+                deskew = true;
+            }
+        }
+        return new PreprocessOptions(targetDpi, grayscale, threshold, deskew);
+    }
+
+    public boolean isEnabled() {
+        return targetDpi > 0 || grayscale || threshold || deskew;
+    }
+
+    //0 means the image is decoded at its full resolution
+    public int getTargetDpi() {
+        return targetDpi;
+    }
+
+    public boolean isGrayscale() {
+        return grayscale;
+    }
+
+    public boolean isThreshold() {
+        return threshold;
+    }
+
+    public boolean isDeskew() {
+        return deskew;
+    }
+
+    //canonical form, used in the results cache key
+    @Override
+    public String toString() {
+        return "dpi=" + targetDpi + (grayscale ? ",grayscale" : "") + (threshold ? ",threshold" : "") + (deskew ? ",deskew" : "");
+    }
+}
@@ -0,0 +1,222 @@
+package com.dsp.worker;
+
+import com.dsp.utils.GeneralUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+//content addressed cache of OCR results: the key is a hash of the image bytes and the OCR settings,
+//so an image seen before (by any job) skips tesseract entirely.
+//2 bounded tiers with LRU eviction: a small in-memory tier and a larger on-disk tier which survives worker restarts
+//(the last access time of a cached result is kept as the modification time of its file)
+public class ResultCache {
+
+    private final File directory;
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+    private final GeneralUtils generalUtils;
+
+    //access ordered maps, the first entry is the least recently used
+    private final LinkedHashMap<String, String> memoryTier;
+    private final LinkedHashMap<String, Long> diskTier;
+    private long memoryBytes;
+    private long diskBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong memoryEvictions = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    public ResultCache(File directory, long maxMemoryBytes, long maxDiskBytes, GeneralUtils generalUtils) {
+        this.directory = directory;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        this.generalUtils = generalUtils;
+        memoryTier = new LinkedHashMap<>(16, 0.75f, true);
+        diskTier = new LinkedHashMap<>(16, 0.75f, true);
+        loadDiskTier();
+    }
+
+    //cache key of an image (sha-256 of its bytes) OCR'd with the given settings
+    public static String key(String imageDigest, String ocrSettings) {
+        return sha256(imageDigest + "|" + ocrSettings);
+    }
+
+    //returns the cached result, or null on a miss
+    public String get(String key) {
+        synchronized (this) {
+            String result = memoryTier.get(key);
+            if (result != null) {
+                memoryHits.incrementAndGet();
+                return result;
+            }
+            if (diskTier.get(key) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        File file = new File(directory, key);
+        String result;
+        try {
+            result = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            synchronized (this) {
+                removeFromDisk(key);
+                misses.incrementAndGet();
+            }
+            return null;
+        }
+        if (!file.setLastModified(System.currentTimeMillis())) {
+            generalUtils.logPrint("Error in ResultCache: can't update access time of " + key);
+        }
+        synchronized (this) {
+            diskHits.incrementAndGet();
+            putInMemory(key, result);
+        }
+        return result;
+    }
+
+    public void put(String key, String result) {
+        synchronized (this) {
+            putInMemory(key, result);
+            if (diskTier.containsKey(key)) {
+                return;
+            }
+        }
+        byte[] bytes = result.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxDiskBytes) {
+            return;
+        }
+        //write to a temp file first, so a crash never leaves a partial result in the cache. every write has its own temp
+        //file, two slots OCR'ing the same image at once don't write to the same file
+        File file = new File(directory, key);
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(directory.toPath(), key, ".tmp");
+            Files.write(tempFile, bytes);
+            Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            deleteTempFile(tempFile);
+            GeneralUtils.printStackTrace(e, generalUtils);
+            generalUtils.logPrint("Error in ResultCache: can't write result to disk");
+            return;
+        }
+        synchronized (this) {
+            Long previous = diskTier.put(key, (long) bytes.length);
+            diskBytes += bytes.length - (previous == null ? 0 : previous);
+            evictFromDisk();
+        }
+    }
+
+    private void deleteTempFile(Path tempFile) {
+        try {
+            if (tempFile != null) {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            generalUtils.logPrint("Error in ResultCache: can't delete temp file " + tempFile);
+        }
+    }
+
+    public void logStats() {
+        synchronized (this) {
+            generalUtils.logPrint(String.format("Result cache: %d memory hits, %d disk hits, %d misses, %d memory evictions, %d disk evictions,"
+                            + " memory %d entries/%d bytes, disk %d entries/%d bytes",
+                    memoryHits.get(), diskHits.get(), misses.get(), memoryEvictions.get(), diskEvictions.get(),
+                    memoryTier.size(), memoryBytes, diskTier.size(), diskBytes));
+        }
+    }
+
+    private void putInMemory(String key, String result) {
+        long size = (long) result.length() * 2; // java chars
+        if (size > maxMemoryBytes) {
+            return;
+        }
+        String previous = memoryTier.put(key, result);
+        memoryBytes += size - (previous == null ? 0 : (long) previous.length() * 2);
+        Iterator<Map.Entry<String, String>> lru = memoryTier.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && lru.hasNext()) {
+            memoryBytes -= (long) lru.next().getValue().length() * 2;
+            lru.remove();
+            memoryEvictions.incrementAndGet();
+        }
+    }
+
+    private void evictFromDisk() {
+        Iterator<Map.Entry<String, Long>> lru = diskTier.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && lru.hasNext()) {
+            Map.Entry<String, Long> entry = lru.next();
+            diskBytes -= entry.getValue();
+            lru.remove();
+            diskEvictions.incrementAndGet();
+            if (!new File(directory, entry.getKey()).delete()) {
+                generalUtils.logPrint("Error in ResultCache: can't delete evicted result " + entry.getKey());
+            }
+        }
+    }
+
+    private void removeFromDisk(String key) {
+        Long size = diskTier.remove(key);
+        if (size != null) {
+            diskBytes -= size;
+        }
+    }
+
+    //rebuild the disk tier index from the cache directory, least recently used first
+    private void loadDiskTier() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            generalUtils.logPrint("Error in ResultCache: can't create cache directory " + directory.getPath());
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                if (!file.delete()) {
+                    generalUtils.logPrint("Error in ResultCache: can't delete " + file.getName());
+                }
+                continue;
+            }
+            diskTier.put(file.getName(), file.length());
+            diskBytes += file.length();
+        }
+        evictFromDisk();
+        generalUtils.logPrint("Result cache loaded " + diskTier.size() + " results from disk");
+    }
+
+    private static String sha256(String value) {
+        return toHex(newDigest().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
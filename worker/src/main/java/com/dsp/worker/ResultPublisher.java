@@ -0,0 +1,146 @@
+package com.dsp.worker;
+
+import com.dsp.aws.SQSClient;
+import com.dsp.utils.GeneralUtils;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+//buffers the result messages sent to the manager and sends them with SendMessageBatch.
+//the buffer is flushed when it holds 10 messages, when the next message would exceed the 256KB batch payload limit,
+//or by the periodic flush() once the linger time passed. results are sent without delivery delay.
+//messages that failed in a batch are retried one by one
+public class ResultPublisher implements Runnable {
+
+    private static final int MAX_BATCH_ENTRIES = 10;
+    private static final int MAX_BATCH_BYTES = 256 * 1024;
+
+    private final SQSClient sqs;
+    private final String queueUrl;
+    private final long lingerMs;
+    private final GeneralUtils generalUtils;
+
+    private List<String> bodies;
+    private List<Map<String, MessageAttributeValue>> attributes;
+    private int bufferedBytes;
+    private long oldestMessageTime;
+
+    public ResultPublisher(SQSClient sqs, String queueUrl, long lingerMs, GeneralUtils generalUtils) {
+        this.sqs = sqs;
+        this.queueUrl = queueUrl;
+        this.lingerMs = lingerMs;
+        this.generalUtils = generalUtils;
+        bodies = new ArrayList<>();
+        attributes = new ArrayList<>();
+        bufferedBytes = 0;
+    }
+
+    public void publish(String body, Map<String, MessageAttributeValue> messageAttributes) {
+        int size = messageSize(body, messageAttributes);
+        List<String> fullBodies = null;
+        List<Map<String, MessageAttributeValue>> fullAttributes = null;
+        synchronized (this) {
+            if (!bodies.isEmpty() && bufferedBytes + size > MAX_BATCH_BYTES) {
+                fullBodies = bodies;
+                fullAttributes = attributes;
+                resetBuffer();
+            }
+            if (bodies.isEmpty()) {
+                oldestMessageTime = System.currentTimeMillis();
+            }
+            bodies.add(body);
+            attributes.add(messageAttributes);
+            bufferedBytes += size;
+        }
+        if (fullBodies != null) {
+            send(fullBodies, fullAttributes);
+        }
+        synchronized (this) {
+            if (bodies.size() < MAX_BATCH_ENTRIES) {
+                return;
+            }
+            fullBodies = bodies;
+            fullAttributes = attributes;
+            resetBuffer();
+        }
+        send(fullBodies, fullAttributes);
+    }
+
+    //periodic flush of a buffer older than the linger time
+    @Override
+    public void run() {
+        try {
+            List<String> lingeringBodies;
+            List<Map<String, MessageAttributeValue>> lingeringAttributes;
+            synchronized (this) {
+                if (bodies.isEmpty() || System.currentTimeMillis() - oldestMessageTime < lingerMs) {
+                    return;
+                }
+                lingeringBodies = bodies;
+                lingeringAttributes = attributes;
+                resetBuffer();
+            }
+            send(lingeringBodies, lingeringAttributes);
+        } catch (Exception e) {
+            // never let an exception cancel the periodic task
+            GeneralUtils.printStackTrace(e, generalUtils);
+        }
+    }
+
+    //send everything that is buffered now
+    public void flush() {
+        List<String> flushedBodies;
+        List<Map<String, MessageAttributeValue>> flushedAttributes;
+        synchronized (this) {
+            if (bodies.isEmpty()) {
+                return;
+            }
+            flushedBodies = bodies;
+            flushedAttributes = attributes;
+            resetBuffer();
+        }
+        send(flushedBodies, flushedAttributes);
+    }
+
+    private void resetBuffer() {
+        bodies = new ArrayList<>();
+        attributes = new ArrayList<>();
+        bufferedBytes = 0;
+    }
+
+    private void send(List<String> batchBodies, List<Map<String, MessageAttributeValue>> batchAttributes) {
+        List<Integer> failed;
+        if (batchBodies.size() == 1) {
+            failed = new ArrayList<>();
+            failed.add(0); // a single message is sent directly
+        } else {
+            failed = sqs.sendMessageBatch(queueUrl, batchBodies, batchAttributes);
+        }
+        for (int index : failed) {
+            if (!sqs.sendMessage(queueUrl, batchBodies.get(index), batchAttributes.get(index), 0)) {
+                logFailure(batchAttributes.get(index));
+            }
+        }
+    }
+
+    private void logFailure(Map<String, MessageAttributeValue> messageAttributes) {
+        MessageAttributeValue url = messageAttributes.get("Url");
+        generalUtils.logPrint("Error at sending OCR task result to manager, URL: " + (url == null ? "" : url.stringValue()));
+    }
+
+    //size of a message as counted by sqs: body, attribute names, types and values
+    private static int messageSize(String body, Map<String, MessageAttributeValue> messageAttributes) {
+        int size = body.getBytes(StandardCharsets.UTF_8).length;
+        for (Map.Entry<String, MessageAttributeValue> attribute : messageAttributes.entrySet()) {
+            size += attribute.getKey().getBytes(StandardCharsets.UTF_8).length;
+            size += attribute.getValue().dataType().getBytes(StandardCharsets.UTF_8).length;
+            if (attribute.getValue().stringValue() != null) {
+                size += attribute.getValue().stringValue().getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return size;
+    }
+}
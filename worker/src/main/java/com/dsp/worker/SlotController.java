@@ -0,0 +1,94 @@
+package com.dsp.worker;
+
+import com.dsp.utils.GeneralUtils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+
+//periodically resizes the OCR slots according to the observed cpu saturation and free heap/physical memory
+//slots grow one at a time while there is spare cpu and memory, and shrink one at a time under pressure
+public class SlotController implements Runnable {
+
+    private static final long MB = 1024 * 1024;
+
+    private final SlotLimiter slotLimiter;
+    private final OcrEnginePool enginePool;
+    private final WorkerConfiguration config;
+    private final GeneralUtils generalUtils;
+    private final OperatingSystemMXBean osBean;
+
+    public SlotController(SlotLimiter slotLimiter, OcrEnginePool enginePool, WorkerConfiguration config, GeneralUtils generalUtils) {
+        this.slotLimiter = slotLimiter;
+        this.enginePool = enginePool;
+        this.config = config;
+        this.generalUtils = generalUtils;
+        this.osBean = ManagementFactory.getOperatingSystemMXBean();
+    }
+
+    @Override
+    public void run() {
+        try {
+            adjust();
+        } catch (Exception e) {
+            // never let an exception cancel the periodic task
+            GeneralUtils.printStackTrace(e, generalUtils);
+        }
+    }
+
+    private void adjust() {
+        double cpuLoad = getCpuLoad();
+        long freeHeapMb = getFreeHeapMb();
+        long freePhysicalMb = getFreePhysicalMemoryMb();
+        long minFreeMb = config.getMinFreeMemoryMb();
+        boolean lowMemory = freeHeapMb < minFreeMb || (freePhysicalMb >= 0 && freePhysicalMb < minFreeMb);
+
+        int limit = slotLimiter.getLimit();
+        int newLimit = nextLimit(limit, slotLimiter.getInUse(), cpuLoad, lowMemory);
+        if (newLimit != limit) {
+            slotLimiter.setLimit(newLimit);
+            generalUtils.logPrint(String.format("OCR slots changed %d -> %d (cpu %.2f, free heap %dMB, free memory %dMB)",
+                    limit, newLimit, cpuLoad, freeHeapMb, freePhysicalMb));
+        }
+        //idle engines of other profiles are kept unless memory is low
+        enginePool.retainAtMost(lowMemory ? newLimit : newLimit + config.getEngineCacheSize() - config.getMaxSlots());
+    }
+
+    //the slots limit after one adjustment, cpuLoad is -1 when unknown
+    int nextLimit(int limit, int inUse, double cpuLoad, boolean lowMemory) {
+        if ((cpuLoad > config.getCpuHighWatermark() || lowMemory) && limit > config.getMinSlots()) {
+            return limit - 1;
+        }
+        if (cpuLoad >= 0 && cpuLoad < config.getCpuLowWatermark() && !lowMemory
+                && limit < config.getMaxSlots() && inUse >= limit) {
+            // only grow when all current slots are busy, otherwise the cpu is idle for lack of work
+            return limit + 1;
+        }
+        return limit;
+    }
+
+    //system cpu load in [0,1], or -1 if not available
+    private double getCpuLoad() {
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            double load = ((com.sun.management.OperatingSystemMXBean) osBean).getSystemCpuLoad();
+            if (load >= 0) {
+                return load;
+            }
+        }
+        double loadAverage = osBean.getSystemLoadAverage();
+        return loadAverage < 0 ? -1 : Math.min(loadAverage / osBean.getAvailableProcessors(), 1.0);
+    }
+
+    private long getFreeHeapMb() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return (runtime.maxMemory() - used) / MB;
+    }
+
+    //free physical memory is where the native tesseract engines live, -1 if not available
+    private long getFreePhysicalMemoryMb() {
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) osBean).getFreePhysicalMemorySize() / MB;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,56 @@
+package com.dsp.worker;
+
+//counting limiter for the concurrent OCR slots whose limit can be changed at runtime
+//lowering the limit never interrupts running tasks, the extra slots are simply not handed out again
+public class SlotLimiter {
+
+    private int limit;
+    private int inUse;
+
+    public SlotLimiter(int limit) {
+        this.limit = limit;
+        this.inUse = 0;
+    }
+
+    public synchronized void acquire() throws InterruptedException {
+        while (inUse >= limit) {
+            wait();
+        }
+        inUse++;
+    }
+
+    public synchronized void release() {
+        inUse--;
+        notifyAll();
+    }
+
+    //take back a slot that was given up with release() while waiting for work done in other slots. waits even if
+    //interrupted (the interrupt is kept), so the release of the slot that follows stays balanced
+    public synchronized void reacquire() {
+        boolean interrupted = false;
+        while (inUse >= limit) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        inUse++;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized void setLimit(int newLimit) {
+        limit = newLimit;
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInUse() {
+        return inUse;
+    }
+}
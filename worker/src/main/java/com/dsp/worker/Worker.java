@@ -1,19 +1,27 @@
 package com.dsp.worker;
 
 import com.dsp.aws.EC2Client;
+import com.dsp.aws.S3client;
 import com.dsp.utils.GeneralUtils;
-import net.sourceforge.tess4j.Tesseract;
-import net.sourceforge.tess4j.TesseractException;
+import com.dsp.utils.ResultCodec;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import javax.imageio.ImageIO;
 
 import com.dsp.aws.SQSClient;
 
@@ -22,15 +30,54 @@ import software.amazon.awssdk.services.sqs.model.Message;
 import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
 
 
+//the worker is a bounded pipeline of stages connected by bounded queues:
+//a receiver long polls task messages in batches -> prefetch threads download their images -> OCR slots apply OCR
+//-> publisher threads acknowledge the tasks in batches and send the results
+//a full queue blocks the stage before it, so the memory used by the worker stays bounded
 public class Worker {
+    private static final String TESSDATA_PATH = "/usr/share/tesseract-ocr/4.00/tessdata"; // in our ami, tessdata is already downloaded.
+
     private static SQSClient sqs;
     private static EC2Client ec2;
-    private static Tesseract tesseract;
+    private static S3client s3;
+    private static OcrEnginePool enginePool;
+    private static SlotLimiter slotLimiter;
+    private static ImageFetcher imageFetcher;
+    private static LeaseExtender leaseExtender;
+    private static ResultCache resultCache;
+    private static ImagePreprocessor imagePreprocessor;
+    private static ImageTiler imageTiler;
+    private static PageRecognizer pageRecognizer;
+    private static ResultPublisher resultPublisher;
     private static GeneralUtils generalUtils;
+    private static final AtomicBoolean shouldRun = new AtomicBoolean(true);
     private static final String instanceId = EC2MetadataUtils.getInstanceId();
     private static String managerToWorkersQueueUrl;
     private static String workersToManagerQueueUrl;
 
+    //received task messages waiting to be downloaded
+    private static BlockingQueue<Message> receivedMessages;
+    //downloaded tasks waiting for an OCR slot
+    private static BlockingQueue<OcrTask> downloadedTasks;
+    //OCR'd (or failed) tasks waiting to be published to the manager
+    private static BlockingQueue<OcrTask> completedTasks;
+    //number of tasks received and not yet published
+    private static final AtomicInteger tasksInPipeline = new AtomicInteger(0);
+    //number of tasks published to the manager since the worker started
+    private static final AtomicLong publishedTasks = new AtomicLong(0);
+    private static Heartbeat heartbeat;
+    private static int receiveBatchSize;
+    private static int receiveWaitSeconds;
+    private static int ackLingerMs;
+    private static int compressMinBytes;
+    private static int inlineMaxBytes;
+    private static String resultBucket;
+    private static int pdfDpi;
+    private static int fanOutPages;
+    private static int ocrTimeoutSeconds;
+    //attributes of a document part task that are sent back with its result
+    private static final String[] DOCUMENT_PART_ATTRIBUTES = {"DocumentID", "DocumentPart", "PageRange"};
+
     public static void main(String[] args) {
 
         //get queue urls from args
@@ -42,80 +89,342 @@ public class Worker {
         //init AWS clients
         sqs = new SQSClient();
         ec2 = new EC2Client();
+        s3 = new S3client();
 
-        //create OCR engine
-        tesseract = new Tesseract();
-        tesseract.setDatapath("/usr/share/tesseract-ocr/4.00/tessdata"); // in our ami, tessdata is already downloaded.
-
-        while(!Thread.interrupted()){
-            List<Message> messages = sqs.getMessages(managerToWorkersQueueUrl, 1);
-            for(Message m : messages){
-                generalUtils.logPrint("Handling task");
-                try {
-                    if(m.body().equals("WORKER_TERMINATE")){
-                        terminateSequence(m);
-                    }
-                    else {
-                        handleOcrTask(m, workersToManagerQueueUrl, managerToWorkersQueueUrl);
+        WorkerConfiguration config = new WorkerConfiguration(args, generalUtils);
+        int maxSlots = config.getMaxSlots();
+        int prefetchThreads = config.getPrefetchThreads();
+        int publisherThreads = config.getPublisherThreads();
+
+        //create the OCR engines pool, engines are kept per OCR profile
+        enginePool = new OcrEnginePool(config.getEngineCacheSize(), TESSDATA_PATH, config.getFastTessdataPath(), config.getAccurateTessdataPath(), generalUtils);
+        slotLimiter = new SlotLimiter(config.getMinSlots());
+        imageFetcher = new ImageFetcher(config, generalUtils);
+        imagePreprocessor = new ImagePreprocessor(config, generalUtils);
+        imageTiler = new ImageTiler(enginePool, slotLimiter, config, generalUtils);
+        pageRecognizer = new PageRecognizer(enginePool, slotLimiter, config, generalUtils);
+        pdfDpi = config.getPdfDpi();
+        fanOutPages = config.getFanOutPages();
+        ocrTimeoutSeconds = config.getOcrTimeoutSeconds();
+        receiveBatchSize = config.getReceiveBatchSize();
+        receiveWaitSeconds = config.getReceiveWaitSeconds();
+        ackLingerMs = config.getAckLingerMs();
+        compressMinBytes = config.getCompressMinBytes();
+        inlineMaxBytes = config.getInlineMaxBytes();
+        resultBucket = config.getResultBucket();
+        receivedMessages = new ArrayBlockingQueue<>(receiveBatchSize);
+        downloadedTasks = new ArrayBlockingQueue<>(config.getPrefetchQueueSize());
+        completedTasks = new ArrayBlockingQueue<>(config.getPublishQueueSize());
+        generalUtils.logPrint("Starting worker with " + config.getMinSlots() + " OCR slots (max " + maxSlots + "), "
+                + prefetchThreads + " prefetch threads and " + publisherThreads + " publisher threads");
+
+        //resize the slots periodically according to cpu and memory usage
+        ScheduledExecutorService backgroundExecutor = Executors.newScheduledThreadPool(4);
+        int interval = config.getSlotAdjustIntervalSeconds();
+        backgroundExecutor.scheduleWithFixedDelay(new SlotController(slotLimiter, enginePool, config, generalUtils),
+                interval, interval, TimeUnit.SECONDS);
+
+        //extend the visibility of the tasks in the pipeline until they are acknowledged
+        leaseExtender = new LeaseExtender(sqs, managerToWorkersQueueUrl, Integer.parseInt(GeneralUtils.VISIBILITY), generalUtils);
+        int leaseInterval = config.getLeaseExtendSeconds();
+        backgroundExecutor.scheduleWithFixedDelay(leaseExtender, leaseInterval, leaseInterval, TimeUnit.SECONDS);
+
+        //results of images that were already OCR'd, the disk tier is kept from previous runs
+        resultCache = new ResultCache(new File(config.getCacheDirectory()), config.getCacheMemoryBytes(), config.getCacheDiskBytes(), generalUtils);
+        backgroundExecutor.scheduleWithFixedDelay(resultCache::logStats, 1, 1, TimeUnit.MINUTES);
+
+        //results are sent to the manager in batches, a partial batch is sent once it waited resultLingerMs
+        int resultLingerMs = config.getResultLingerMs();
+        resultPublisher = new ResultPublisher(sqs, workersToManagerQueueUrl, resultLingerMs, generalUtils);
+        backgroundExecutor.scheduleWithFixedDelay(resultPublisher, resultLingerMs / 2, resultLingerMs / 2, TimeUnit.MILLISECONDS);
+
+        //tell the manager this worker is alive and how fast it is
+        heartbeat = new Heartbeat(sqs, workersToManagerQueueUrl, instanceId, publishedTasks, slotLimiter, generalUtils);
+        int heartbeatSeconds = config.getHeartbeatSeconds();
+        backgroundExecutor.scheduleWithFixedDelay(heartbeat, 0, heartbeatSeconds, TimeUnit.SECONDS);
+
+        //start the pipeline stages, only OCR slots allowed by the slotLimiter are running at a time
+        ExecutorService stagesExecutor = Executors.newFixedThreadPool(1 + prefetchThreads + maxSlots + publisherThreads);
+        stagesExecutor.submit(Worker::runReceiver);
+        for (int i = 0; i < prefetchThreads; i++) {
+            stagesExecutor.submit(Worker::runPrefetcher);
+        }
+        for (int i = 0; i < maxSlots; i++) {
+            stagesExecutor.submit(Worker::runOcrSlot);
+        }
+        for (int i = 0; i < publisherThreads; i++) {
+            stagesExecutor.submit(Worker::runPublisher);
+        }
+        stagesExecutor.shutdown();
+        try {
+            while (!stagesExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                generalUtils.logPrint(String.format("Worker status: %d OCR slots, %d downloaded tasks waiting, %d results waiting",
+                        slotLimiter.getLimit(), downloadedTasks.size(), completedTasks.size()));
+            }
+        } catch (InterruptedException e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+        }
+        backgroundExecutor.shutdownNow();
+        generalUtils.logPrint("Worker finished");
+        // END OF MAIN
+    }
+
+    //receive stage: long poll the tasks queue for batches of messages and buffer them for the prefetch threads
+    private static void runReceiver() {
+        while (shouldRun.get()) {
+            List<Message> messages;
+            try {
+                messages = sqs.getMessages(managerToWorkersQueueUrl, receiveBatchSize, receiveWaitSeconds);
+            } catch (Exception e) {
+                GeneralUtils.printStackTrace(e, generalUtils);
+                messages = Collections.emptyList();
+            }
+            Message terminateMessage = null;
+            try {
+                for (Message m : messages) {
+                    if (m.body().equals("WORKER_TERMINATE")) {
+                        if (terminateMessage == null) {
+                            //keep it invisible while the pipeline drains, so it terminates this worker only
+                            terminateMessage = m;
+                            leaseExtender.register(m);
+                        } else {
+                            //a terminate message is for one worker, let another worker take this one
+                            sqs.changeVisibility(managerToWorkersQueueUrl, 0, m.receiptHandle());
+                        }
+                        continue;
                     }
-                } catch(Exception e){
-                    GeneralUtils.printStackTrace(e, generalUtils);
-                    generalUtils.logPrint("Error in main: handleOcrTask failed, continuing...");
+                    tasksInPipeline.incrementAndGet();
+                    leaseExtender.register(m);
+                    receivedMessages.put(m); // blocks while the prefetch threads are behind
                 }
-            }
-            if(messages.isEmpty()){
-                try {
+                if (terminateMessage != null) {
+                    terminateSequence(terminateMessage);
+                    return;
+                }
+                if (messages.isEmpty() && receiveWaitSeconds == 0) {
                     Thread.sleep(2_000);
-                } catch (InterruptedException e) {
-                    GeneralUtils.printStackTrace(e, generalUtils);
                 }
+            } catch (InterruptedException e) {
+                GeneralUtils.printStackTrace(e, generalUtils);
+                return;
+            } catch (Exception e) {
+                GeneralUtils.printStackTrace(e, generalUtils);
+                generalUtils.logPrint("Error in receiver, continuing...");
+            }
+        }
+    }
+
+    //prefetch stage: download the images of received tasks while the OCR slots are busy
+    private static void runPrefetcher() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                prefetchTask(receivedMessages.take());
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                GeneralUtils.printStackTrace(e, generalUtils);
+                generalUtils.logPrint("Error in prefetcher, continuing...");
             }
         }
-        generalUtils.logPrint("Worker finished");
-        // END OF MAIN
     }
 
-    //handle OCR Task
-    private static void handleOcrTask(Message m, String workersToManagerQueueUrl, String managerToWorkersQueueUrl) {
-        Map<String, MessageAttributeValue> attributes = m.messageAttributes();
-        String localAppID = attributes.get("LocalAppID").stringValue();
-        String inputUrl = m.body();
-        //download image
-        String imagePath = downloadImage(inputUrl);
-        if (imagePath.equals("")) {
-            generalUtils.logPrint("Error: Image not downloaded.... continuing to next ocr task, URL: " +  inputUrl);
-            sendException(workersToManagerQueueUrl, localAppID, inputUrl, "Image download error");
-            deleteMessageFromQueue(m, managerToWorkersQueueUrl);
+    private static void prefetchTask(Message m) throws InterruptedException {
+        generalUtils.logPrint("Handling task");
+        OcrTask task;
+        try {
+            task = new OcrTask(m);
+        } catch (Exception e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            generalUtils.logPrint("Error in prefetcher: bad task message, continuing...");
+            leaseExtender.complete(m);
+            tasksInPipeline.decrementAndGet();
             return;
         }
-        //apply ocr on the image
-        String ocrResult = applyOcr(imagePath, tesseract);
-        if(ocrResult == null){
-            generalUtils.logPrint("Error during OCR operation.... continuing to next ocr task, URL: "+ inputUrl);
-            sendException(workersToManagerQueueUrl, localAppID, inputUrl, "OCR operation error");
-            deleteMessageFromQueue(m, managerToWorkersQueueUrl);
+        try {
+            //download image, kept in memory unless it is larger than the spill threshold
+            DownloadedImage image = imageFetcher.download(task.getUrl());
+            if (image == null) {
+                generalUtils.logPrint("Error: Image not downloaded.... continuing to next ocr task, URL: " + task.getUrl());
+                task.fail("Image download error");
+                completedTasks.put(task);
+                return;
+            }
+            task.setImage(image);
+            //an image that was already OCR'd skips the OCR slots
+            String cachedResult = resultCache.get(task.getCacheKey());
+            if (cachedResult != null) {
+                generalUtils.logPrint("Result found in cache, URL: " + task.getUrl());
+                task.setResult(cachedResult);
+                completedTasks.put(task);
+                return;
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            //the task still goes through the publisher, so it leaves the pipeline and its lease is completed
+            GeneralUtils.printStackTrace(e, generalUtils);
+            generalUtils.logPrint("Error in prefetcher: prefetching the task failed, continuing... URL: " + task.getUrl());
+            disposeImage(task);
+            task.fail("Image download error");
+            completedTasks.put(task);
             return;
         }
-        generalUtils.logPrint("Task finished successfully, sending result to manager");
-        generalUtils.logPrint("URL: "+ inputUrl);
+        downloadedTasks.put(task); // blocks while the OCR slots are behind
+    }
+
+    //OCR stage: a single slot applying OCR on one downloaded task at a time
+    private static void runOcrSlot() {
+        while (!Thread.currentThread().isInterrupted()) {
+            OcrTask task;
+            try {
+                task = downloadedTasks.take();
+                slotLimiter.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                task.startDeadline(ocrTimeoutSeconds);
+                applyOcr(task);
+            } catch (Exception e) {
+                GeneralUtils.printStackTrace(e, generalUtils);
+                task.fail("OCR operation error");
+            } finally {
+                slotLimiter.release();
+            }
+            disposeImage(task); // the image isn't needed anymore, free it before waiting for the publisher
+            try {
+                completedTasks.put(task); // blocks while the publishers are behind
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    //publish stage: acknowledge the completed tasks in batches and send their results (or exceptions) to the manager
+    private static void runPublisher() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<OcrTask> tasks = new ArrayList<>();
+            try {
+                tasks.add(completedTasks.take());
+                //wait a little for more completed tasks, so they are acknowledged together
+                long lingerEnd = System.currentTimeMillis() + ackLingerMs;
+                while (tasks.size() < 10) {
+                    OcrTask task = completedTasks.poll(Math.max(lingerEnd - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+                    if (task == null) {
+                        break;
+                    }
+                    tasks.add(task);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                publishResults(tasks);
+            } catch (Exception e) {
+                GeneralUtils.printStackTrace(e, generalUtils);
+                generalUtils.logPrint("Error in publisher: publishResults failed, continuing...");
+            } finally {
+                for (OcrTask task : tasks) {
+                    leaseExtender.complete(task.getMessage());
+                    disposeImage(task);
+                }
+                tasksInPipeline.addAndGet(-tasks.size());
+                publishedTasks.addAndGet(tasks.size());
+            }
+        }
+    }
+
+    private static void publishResults(List<OcrTask> tasks) {
+        //worker exceptions are sent before their task is deleted
+        for (OcrTask task : tasks) {
+            if (task.isFailed()) {
+                sendException(task, task.getErrorMessage());
+            }
+        }
 
-        //delete ocr task message from queue - only if OCR was successful!
+        //delete ocr task messages from queue in a single batch
         //if deletion fails because message was already deleted, continue to next message without submitting result
-        deleteMessageFromQueue(m, managerToWorkersQueueUrl);
+        List<Message> messages = tasks.stream().map(OcrTask::getMessage).collect(Collectors.toList());
+        Set<Message> notDeleted = new HashSet<>(sqs.deleteMessagesBatch(messages, managerToWorkersQueueUrl));
+        if (!notDeleted.isEmpty()) {
+            generalUtils.logPrint("Error at deleting " + notDeleted.size() + " task messages from managerToWorkersQueue");
+        }
 
-        //send ocr result to manager
+        for (OcrTask task : tasks) {
+            if (task.isFailed() || notDeleted.contains(task.getMessage())) {
+                continue;
+            }
+            if (task.isSplit()) {
+                sendSplit(task);
+                continue;
+            }
+            generalUtils.logPrint("Task finished successfully, sending result to manager");
+            generalUtils.logPrint("URL: "+ task.getUrl());
+            sendResult(task);
+        }
+    }
+
+    //queue ocr result to be sent to manager
+    //small results are sent as is, larger results are compressed, and results that are still too large for a message
+    //are written to the job's results in S3 and only their key is sent
+    private static void sendResult(OcrTask task) {
         HashMap<String, MessageAttributeValue> attributesMap = new HashMap<>();
         attributesMap.put("From", MessageAttributeValue.builder().dataType("String").stringValue("Worker").build());
         attributesMap.put("To", MessageAttributeValue.builder().dataType("String").stringValue("Manager").build());
-        attributesMap.put("LocalAppID", MessageAttributeValue.builder().dataType("String").stringValue(localAppID).build());
-        attributesMap.put("Url", MessageAttributeValue.builder().dataType("String").stringValue(inputUrl).build());
-        if(!sqs.sendMessage(workersToManagerQueueUrl, ocrResult, attributesMap)) {
-            generalUtils.logPrint("Error at sending OCR task result to manager, URL: " + inputUrl);
-            throw new RuntimeException("Error in sending sqs message");
+        attributesMap.put("LocalAppID", MessageAttributeValue.builder().dataType("String").stringValue(task.getLocalAppID()).build());
+        attributesMap.put("Url", MessageAttributeValue.builder().dataType("String").stringValue(task.getUrl()).build());
+        addDocumentPartAttributes(task, attributesMap);
+        String result = task.getResult();
+        if (result.getBytes(StandardCharsets.UTF_8).length < compressMinBytes) {
+            resultPublisher.publish(result, attributesMap);
+            return;
         }
+        byte[] compressed = ResultCodec.compress(result);
+        attributesMap.put(ResultCodec.ENCODING_ATTRIBUTE, MessageAttributeValue.builder().dataType("String").stringValue(ResultCodec.GZIP).build());
+        String body = ResultCodec.toBody(compressed);
+        if (body.length() <= inlineMaxBytes || resultBucket == null) {
+            resultPublisher.publish(body, attributesMap);
+            return;
+        }
+        String key = ResultCodec.resultKey(task.getLocalAppID(), GeneralUtils.getUniqueID());
+        if (!s3.putObjectBytes(resultBucket, key, compressed)) {
+            generalUtils.logPrint("Error at uploading OCR task result to s3, URL: " + task.getUrl());
+            sendException(task, "Result upload error");
+            return;
+        }
+        generalUtils.logPrint("Result of " + compressed.length + " bytes uploaded to s3, sending its key");
+        attributesMap.put(ResultCodec.POINTER_ATTRIBUTE, MessageAttributeValue.builder().dataType("String").stringValue(key).build());
+        resultPublisher.publish(key, attributesMap);
+    }
+
+    //ask the manager to fan out the pages of a long document as sub tasks of fanOutPages pages,
+    //the attributes of the task (job options) are kept for the sub tasks
+    private static void sendSplit(OcrTask task) {
+        generalUtils.logPrint("Document of " + task.getSplitPageCount() + " pages is fanned out by the manager, URL: " + task.getUrl());
+        HashMap<String, MessageAttributeValue> attributesMap = new HashMap<>(task.getMessage().messageAttributes());
+        attributesMap.put("From", MessageAttributeValue.builder().dataType("String").stringValue("Worker").build());
+        attributesMap.put("To", MessageAttributeValue.builder().dataType("String").stringValue("Manager").build());
+        attributesMap.put("Url", MessageAttributeValue.builder().dataType("String").stringValue(task.getUrl()).build());
+        attributesMap.put("DocumentID", MessageAttributeValue.builder().dataType("String").stringValue(GeneralUtils.getUniqueID()).build());
+        attributesMap.put("PageCount", MessageAttributeValue.builder().dataType("Number").stringValue(Integer.toString(task.getSplitPageCount())).build());
+        attributesMap.put("PagesPerPart", MessageAttributeValue.builder().dataType("Number").stringValue(Integer.toString(fanOutPages)).build());
+        resultPublisher.publish("DOCUMENT_SPLIT", attributesMap);
+    }
 
-        //delete downloaded ocr image
-        if(!new File(imagePath).delete()){
+    private static void addDocumentPartAttributes(OcrTask task, Map<String, MessageAttributeValue> attributesMap) {
+        if (!task.isDocumentPart()) {
+            return;
+        }
+        for (String name : DOCUMENT_PART_ATTRIBUTES) {
+            MessageAttributeValue value = task.getMessage().messageAttributes().get(name);
+            if (value != null) {
+                attributesMap.put(name, value);
+            }
+        }
+    }
+
+    private static void disposeImage(OcrTask task) {
+        if(!task.disposeImage()){
             generalUtils.logPrint("Image can't be deleted");
         }
     }
@@ -129,52 +438,127 @@ public class Worker {
         }
     }
 
-    //send worker exception notification to manager
-    private static void sendException(String workersToManagerQueueUrl, String localAppID, String inputUrl, String errorMessage) {
+    //queue worker exception notification to be sent to manager
+    private static void sendException(OcrTask task, String errorMessage) {
         HashMap<String, MessageAttributeValue> attributesMap = new HashMap<>();
         attributesMap.put("From", MessageAttributeValue.builder().dataType("String").stringValue("Worker").build());
         attributesMap.put("To", MessageAttributeValue.builder().dataType("String").stringValue("Manager").build());
-        attributesMap.put("LocalAppID", MessageAttributeValue.builder().dataType("String").stringValue(localAppID).build());
-        attributesMap.put("Url", MessageAttributeValue.builder().dataType("String").stringValue(inputUrl).build());
+        attributesMap.put("LocalAppID", MessageAttributeValue.builder().dataType("String").stringValue(task.getLocalAppID()).build());
+        attributesMap.put("Url", MessageAttributeValue.builder().dataType("String").stringValue(task.getUrl()).build());
         attributesMap.put("ExceptionSummary", MessageAttributeValue.builder().dataType("String").stringValue(errorMessage).build());
-        if (!sqs.sendMessage(workersToManagerQueueUrl, "WORKER EXCEPTION", attributesMap)) {
-            generalUtils.logPrint("Error at sending worker exception to manager");
-        }
+        addDocumentPartAttributes(task, attributesMap);
+        resultPublisher.publish("WORKER EXCEPTION", attributesMap);
     }
 
-    private static String applyOcr(String imagePath, Tesseract tesseract){
+    //apply ocr on the downloaded image of the task, using an engine of the pool
+    //multi-page documents are OCR'd page by page, if the job asked for preprocessing, the image is decoded and
+    //preprocessed first (downscaled to the tiling threshold), otherwise very large images are OCR'd in tiles
+    private static void applyOcr(OcrTask task) throws InterruptedException {
+        PagedDocument document;
         try {
-            // apply OCR on the image
-            return tesseract.doOCR(new File(imagePath));
-        } catch (TesseractException e) {
+            document = PagedDocument.open(task.getImage(), pdfDpi);
+        } catch (IOException | RuntimeException e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            generalUtils.logPrint("Error at reading document.... continuing to next ocr task, URL: " + task.getUrl());
+            task.fail("Document read error");
+            return;
+        }
+        if (document != null) {
+            try {
+                applyDocumentOcr(task, document);
+            } finally {
+                document.close();
+            }
+            return;
+        }
+        if (!task.getPreprocessOptions().isEnabled() && imageTiler.shouldTile(task.getImage())) {
+            try {
+                task.setResult(imageTiler.recognize(task.getImage(), task.getProfile(), task.getDeadline()));
+                resultCache.put(task.getCacheKey(), task.getResult());
+            } catch (OcrTimeoutException e) {
+                failTimeout(task);
+            } catch (IOException | RuntimeException e) {
+                GeneralUtils.printStackTrace(e, generalUtils);
+                generalUtils.logPrint("Error during tiled OCR operation.... continuing to next ocr task, URL: " + task.getUrl());
+                task.fail("OCR operation error");
+            }
+            return;
+        }
+        BufferedImage preprocessed = null;
+        if (task.getPreprocessOptions().isEnabled()) {
+            try {
+                preprocessed = imagePreprocessor.process(task.getImage(), task.getPreprocessOptions());
+            } catch (IOException | RuntimeException e) {
+                GeneralUtils.printStackTrace(e, generalUtils);
+                generalUtils.logPrint("Error during preprocessing.... continuing to next ocr task, URL: " + task.getUrl());
+                task.fail("Image preprocessing error");
+                return;
+            }
+        }
+        OcrEngine engine = enginePool.acquire(task.getProfile());
+        engine.setDeadline(task.getDeadline());
+        try {
+            task.setResult(preprocessed != null ? engine.recognize(preprocessed) : engine.recognize(task.getImage()));
+            resultCache.put(task.getCacheKey(), task.getResult());
+        } catch (OcrTimeoutException e) {
+            failTimeout(task);
+        } catch (RuntimeException e) {
             generalUtils.logPrint(Arrays.toString(e.getStackTrace()));
-            return null;
+            generalUtils.logPrint("Error during OCR operation.... continuing to next ocr task, URL: "+ task.getUrl());
+            task.fail("OCR operation error");
+        } finally {
+            enginePool.release(engine); // a cancelled engine is replaced by a new one
         }
     }
 
-    //downloads image from url
-    private static String downloadImage(String urlInput) {
-        String downloadFilePath = GeneralUtils.getUniqueID() + "__Image.png";
+    //the task ran out of its OCR time budget, the manager gets a timeout WORKER EXCEPTION so the job can complete
+    private static void failTimeout(OcrTask task) {
+        int seconds = task.getTimeoutSeconds(ocrTimeoutSeconds);
+        generalUtils.logPrint("OCR cancelled after " + seconds + " seconds.... continuing to next ocr task, URL: " + task.getUrl());
+        task.fail("OCR timeout: not finished in " + seconds + " seconds");
+    }
+
+    //OCR the pages of the document (or of the document part) in parallel
+    //a document longer than fanOutPages is split instead, its pages are OCR'd as sub tasks sent by the manager
+    private static void applyDocumentOcr(OcrTask task, PagedDocument document) throws InterruptedException {
+        int pageCount = document.getPageCount();
+        if (!task.isDocumentPart() && fanOutPages > 0 && pageCount > fanOutPages) {
+            task.split(pageCount);
+            return;
+        }
+        int firstPage = task.isDocumentPart() ? Math.min(task.getPageStart(), pageCount) : 0;
+        int endPage = task.isDocumentPart() ? Math.min(task.getPageEnd(), pageCount) : pageCount;
         try {
-            URL url = new URL(urlInput);
-            BufferedImage image = ImageIO.read(url);
-            if(image == null){
-                generalUtils.logPrint("Error at downloadImage: image can't be downloaded");
-                return "";
-            }
-            ImageIO.write(image, "png",new File(downloadFilePath) );
-        } catch (IOException e) {
-            generalUtils.logPrint("Error at downloadImage: broken link");
-            generalUtils.logPrint(Arrays.toString(e.getStackTrace()));
-            return "";
+            task.setResult(pageRecognizer.recognize(document, firstPage, endPage, task.getProfile(), task.getDeadline()));
+            resultCache.put(task.getCacheKey(), task.getResult());
+        } catch (OcrTimeoutException e) {
+            failTimeout(task);
+        } catch (IOException | RuntimeException e) {
+            GeneralUtils.printStackTrace(e, generalUtils);
+            generalUtils.logPrint("Error during document OCR operation.... continuing to next ocr task, URL: " + task.getUrl());
+            task.fail("OCR operation error");
         }
-        return downloadFilePath;
     }
 
-    private static void terminateSequence(Message m) {
+    private static void terminateSequence(Message m) throws InterruptedException {
         generalUtils.logPrint("Instance terminating");
+        shouldRun.set(false); // stop prefetching new tasks
 
+        //let the tasks already in the pipeline finish
+        while (tasksInPipeline.get() > 0) {
+            Thread.sleep(500);
+        }
+        resultPublisher.flush(); // don't leave buffered results behind
+
+        leaseExtender.complete(m);
         deleteMessageFromQueue(m, managerToWorkersQueueUrl);
+        heartbeat.sendTerminating();
+
+        //release the native OCR engines and the http connections
+        enginePool.close();
+        imageFetcher.close();
+        imageTiler.close();
+        pageRecognizer.close();
 
         if(!ec2.terminateInstances(Stream.of(instanceId).collect(Collectors.toList()))){
             generalUtils.logPrint("Instance couldn't terminate");
@@ -0,0 +1,264 @@
+package com.dsp.worker;
+
+import com.dsp.utils.GeneralUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//worker settings, passed by the manager as optional "key=value" arguments after the two queue urls
+public class WorkerConfiguration {
+
+    private final Map<String, String> settings;
+    private final GeneralUtils generalUtils;
+
+    public WorkerConfiguration(String[] args, GeneralUtils generalUtils) {
+        this.generalUtils = generalUtils;
+        settings = new HashMap<>();
+        for (int i = 2; i < args.length; i++) {
+            int separator = args[i].indexOf('=');
+            if (separator <= 0) {
+                generalUtils.logPrint("Ignoring bad worker setting: " + args[i]);
+                continue;
+            }
+            settings.put(args[i].substring(0, separator), args[i].substring(separator + 1));
+        }
+    }
+
+    //minimal number of concurrent OCR slots
+    public int getMinSlots() {
+        return Math.max(getInt("minSlots", 1), 1);
+    }
+
+    //maximal number of concurrent OCR slots (and OCR engines)
+    public int getMaxSlots() {
+        return Math.max(getInt("maxSlots", Runtime.getRuntime().availableProcessors()), getMinSlots());
+    }
+
+    //max initialised OCR engines, busy and idle of all profiles. above maxSlots, idle engines of other profiles are kept
+    //so switching between jobs with different profiles doesn't reload traineddata
+    public int getEngineCacheSize() {
+        return Math.max(getInt("engineCacheSize", getMaxSlots() + 1), getMaxSlots());
+    }
+
+    //traineddata directory of the fast preset (tessdata_fast), the default tessdata if not set
+    public String getFastTessdataPath() {
+        return settings.get("tessdataFast");
+    }
+
+    //traineddata directory of the accurate preset (tessdata_best), the default tessdata if not set
+    public String getAccurateTessdataPath() {
+        return settings.get("tessdataBest");
+    }
+
+    //above this cpu load (0..1) the number of slots is decreased
+    public double getCpuHighWatermark() {
+        return getDouble("cpuHigh", 0.9);
+    }
+
+    //below this cpu load (0..1) the number of slots may be increased
+    public double getCpuLowWatermark() {
+        return getDouble("cpuLow", 0.6);
+    }
+
+    //minimal free heap and physical memory (in MB) needed to keep or add a slot
+    public long getMinFreeMemoryMb() {
+        return getInt("minFreeMemoryMb", 150);
+    }
+
+    public int getSlotAdjustIntervalSeconds() {
+        return Math.max(getInt("slotAdjustSeconds", 10), 1);
+    }
+
+    //max number of task messages received in a single request (1-10)
+    public int getReceiveBatchSize() {
+        return Math.min(Math.max(getInt("receiveBatchSize", 10), 1), 10);
+    }
+
+    //long polling wait time (0-20 seconds) of a receive request when the tasks queue is empty
+    public int getReceiveWaitSeconds() {
+        return Math.min(Math.max(getInt("receiveWaitSeconds", 20), 0), 20);
+    }
+
+    //how often (seconds) the visibility of the in-flight tasks is extended, must be lower than the queue visibility timeout
+    public int getLeaseExtendSeconds() {
+        int visibility = Integer.parseInt(GeneralUtils.VISIBILITY);
+        return Math.min(Math.max(getInt("leaseExtendSeconds", visibility / 3), 1), visibility - 1);
+    }
+
+    //max time (ms) a publisher waits for more completed tasks to acknowledge them in a single batch
+    public int getAckLingerMs() {
+        return Math.max(getInt("ackLingerMs", 200), 0);
+    }
+
+    //max time (ms) a result waits in the result publisher for more results to be sent in a single batch
+    public int getResultLingerMs() {
+        return Math.max(getInt("resultLingerMs", 200), 10);
+    }
+
+    //number of threads downloading task images ahead of the OCR slots
+    public int getPrefetchThreads() {
+        return Math.max(getInt("prefetchThreads", 2), 1);
+    }
+
+    //max downloaded tasks waiting for an OCR slot, prefetching blocks when it is reached
+    public int getPrefetchQueueSize() {
+        return Math.max(getInt("prefetchQueueSize", getMaxSlots() * 2), 1);
+    }
+
+    //max OCR'd tasks waiting to be published, the OCR slots block when it is reached
+    public int getPublishQueueSize() {
+        return Math.max(getInt("publishQueueSize", 20), 1);
+    }
+
+    public int getPublisherThreads() {
+        return Math.max(getInt("publisherThreads", 1), 1);
+    }
+
+    //downloaded images larger than this are kept in a temp file instead of memory
+    public long getSpillThresholdBytes() {
+        return getInt("spillThresholdKb", 16 * 1024) * 1024L;
+    }
+
+    public int getFetchConnectTimeoutMs() {
+        return getInt("fetchConnectTimeoutMs", 5_000);
+    }
+
+    //max time without receiving data from the image host
+    public int getFetchReadTimeoutMs() {
+        return getInt("fetchReadTimeoutMs", 15_000);
+    }
+
+    //max time waiting for a free connection to the image host
+    public int getFetchPoolTimeoutMs() {
+        return getInt("fetchPoolTimeoutMs", 60_000);
+    }
+
+    //images larger than this are not downloaded
+    public long getFetchMaxBytes() {
+        return getInt("fetchMaxMb", 50) * 1024L * 1024L;
+    }
+
+    //max concurrent connections to a single host
+    public int getFetchMaxPerHost() {
+        return Math.max(getInt("fetchMaxPerHost", 4), 1);
+    }
+
+    public int getFetchMaxConnections() {
+        return Math.max(getInt("fetchMaxConnections", 32), 1);
+    }
+
+    //retries of a failed download (connection errors, timeouts and 5xx responses)
+    public int getFetchRetries() {
+        return Math.max(getInt("fetchRetries", 2), 0);
+    }
+
+    public int getFetchMaxRedirects() {
+        return Math.max(getInt("fetchMaxRedirects", 5), 0);
+    }
+
+    //directory of the on-disk tier of the OCR results cache, kept between worker runs
+    public String getCacheDirectory() {
+        String value = settings.get("cacheDir");
+        return value == null ? "ocr-cache" : value;
+    }
+
+    public long getCacheMemoryBytes() {
+        return getInt("cacheMemoryMb", 32) * 1024L * 1024L;
+    }
+
+    public long getCacheDiskBytes() {
+        return getInt("cacheDiskMb", 1024) * 1024L * 1024L;
+    }
+
+    //images with more pixels than this are OCR'd tile by tile instead of decoding the whole image
+    public long getTileThresholdPixels() {
+        return Math.max(getInt("tileThresholdMp", 25), 1) * 1_000_000L;
+    }
+
+    //width and height (pixels) of the core of a tile
+    public int getTileSize() {
+        return Math.max(getInt("tileSize", 2048), 256);
+    }
+
+    //pixels decoded around the core of a tile, should be higher than a text line
+    public int getTileOverlap() {
+        return Math.max(getInt("tileOverlap", 100), 0);
+    }
+
+    //max memory of the tiles decoded at the same time, across all tiled images
+    public long getTileMemoryBytes() {
+        return Math.max(getInt("tileMemoryMb", 96), 1) * 1024L * 1024L;
+    }
+
+    //number of threads OCR'ing tiles, each tile uses an engine of the engines pool in an OCR slot
+    public int getTileThreads() {
+        return Math.max(getInt("tileThreads", getMaxSlots()), 1);
+    }
+
+    //seconds between the heartbeats sent to the manager
+    public int getHeartbeatSeconds() {
+        return Math.max(getInt("heartbeatSeconds", 15), 1);
+    }
+
+    //default OCR time budget (seconds) of a task without a TimeoutSeconds attribute, 0 for no limit
+    public int getOcrTimeoutSeconds() {
+        return Math.max(getInt("ocrTimeoutSeconds", 120), 0);
+    }
+
+    //number of threads OCR'ing the pages of multi-page documents, each page uses an engine of the engines pool in an OCR slot
+    public int getPageThreads() {
+        return Math.max(getInt("pageThreads", getMaxSlots()), 1);
+    }
+
+    //resolution of the rendered pdf pages
+    public int getPdfDpi() {
+        return Math.min(Math.max(getInt("pdfDpi", 300), 72), 600);
+    }
+
+    //documents with more pages than this are fanned out by the manager as sub tasks of this many pages, 0 disables it
+    public int getFanOutPages() {
+        return Math.max(getInt("fanOutPages", 0), 0);
+    }
+
+    //results larger than this are sent gzip compressed
+    public int getCompressMinBytes() {
+        return Math.max(getInt("compressMinBytes", 1024), 0);
+    }
+
+    //compressed results larger than this are written to S3 by the worker and only their key is sent to the manager,
+    //must leave room for the message attributes under the 256KB sqs message limit
+    public int getInlineMaxBytes() {
+        return Math.min(Math.max(getInt("inlineMaxKb", 200), 1), 240) * 1024;
+    }
+
+    //bucket of the job results, passed by the manager. without it large results can only be sent inline
+    public String getResultBucket() {
+        return settings.get("resultBucket");
+    }
+
+    private int getInt(String key, int defaultValue) {
+        String value = settings.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            generalUtils.logPrint("Bad worker setting " + key + "=" + value + ", using default " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private double getDouble(String key, double defaultValue) {
+        String value = settings.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            generalUtils.logPrint("Bad worker setting " + key + "=" + value + ", using default " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
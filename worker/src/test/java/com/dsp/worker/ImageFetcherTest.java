@@ -0,0 +1,168 @@
+package com.dsp.worker;
+
+import com.dsp.utils.GeneralUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ImageFetcherTest {
+
+    private static final GeneralUtils QUIET = new GeneralUtils() {
+        @Override
+        public synchronized void logPrint(String msg) {
+        }
+    };
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private ImageFetcher fetcher;
+    private byte[] png;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_BYTE_GRAY), "png", out);
+        png = out.toByteArray();
+    }
+
+    @After
+    public void tearDown() {
+        if (fetcher != null) {
+            fetcher.close();
+        }
+        server.stop(0);
+    }
+
+    private void newFetcher(String... settings) {
+        String[] args = new String[settings.length + 2];
+        args[0] = "managerQueue";
+        args[1] = "workersQueue";
+        System.arraycopy(settings, 0, args, 2, settings.length);
+        fetcher = new ImageFetcher(new WorkerConfiguration(args, QUIET), QUIET);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Test
+    public void downloadsImage() {
+        server.createContext("/image", exchange -> {
+            requests.incrementAndGet();
+            respond(exchange, 200, png);
+        });
+        newFetcher();
+        DownloadedImage image = fetcher.download(url("/image"));
+        assertNotNull(image);
+        assertArrayEquals(png, image.getBytes());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void retriesServerError() {
+        server.createContext("/flaky", exchange -> {
+            if (requests.incrementAndGet() == 1) {
+                respond(exchange, 503, new byte[0]);
+            } else {
+                respond(exchange, 200, png);
+            }
+        });
+        newFetcher("fetchRetries=1");
+        assertNotNull(fetcher.download(url("/flaky")));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void doesNotRetryClientError() {
+        server.createContext("/missing", exchange -> {
+            requests.incrementAndGet();
+            respond(exchange, 404, new byte[0]);
+        });
+        newFetcher("fetchRetries=2");
+        assertNull(fetcher.download(url("/missing")));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void givesUpOnReadTimeout() {
+        server.createContext("/slow", exchange -> {
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(1_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, png);
+        });
+        newFetcher("fetchRetries=0", "fetchReadTimeoutMs=200");
+        long start = System.currentTimeMillis();
+        assertNull(fetcher.download(url("/slow")));
+        assertEquals(1, requests.get());
+        assertEquals(true, System.currentTimeMillis() - start < 1_000);
+    }
+
+    @Test
+    public void rejectsImageLargerThanMaxBytes() {
+        byte[] large = new byte[2 * 1024 * 1024];
+        System.arraycopy(png, 0, large, 0, png.length);
+        server.createContext("/large", exchange -> {
+            requests.incrementAndGet();
+            respond(exchange, 200, large);
+        });
+        newFetcher("fetchRetries=2", "fetchMaxMb=1");
+        assertNull(fetcher.download(url("/large")));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void rejectsStreamedImageLargerThanMaxBytes() {
+        byte[] chunk = new byte[256 * 1024];
+        server.createContext("/stream", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, 0); // chunked, no content length
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(png);
+                for (int i = 0; i < 8; i++) {
+                    out.write(chunk);
+                }
+            } catch (IOException e) {
+                // the client aborts the download
+            }
+        });
+        newFetcher("fetchRetries=2", "fetchMaxMb=1");
+        assertNull(fetcher.download(url("/stream")));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void doesNotRetryMalformedUrl() {
+        newFetcher("fetchRetries=2");
+        long start = System.currentTimeMillis();
+        assertNull(fetcher.download("http://bad host/image.png"));
+        assertEquals(true, System.currentTimeMillis() - start < 500); // no backoff
+    }
+}
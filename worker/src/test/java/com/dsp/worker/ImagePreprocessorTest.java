@@ -0,0 +1,85 @@
+package com.dsp.worker;
+
+import com.dsp.utils.GeneralUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class ImagePreprocessorTest {
+
+    private static final GeneralUtils QUIET = new GeneralUtils() {
+        @Override
+        public synchronized void logPrint(String msg) {
+        }
+    };
+
+    private static final int WIDTH = 120;
+    private static final int HEIGHT = 40;
+    private static final int SQUARE = 6;
+    private static final int[] SQUARE_LEFTS = {10, 57, 104};
+    private static final int SQUARE_TOP = 17;
+
+    private ImagePreprocessor preprocessor;
+
+    @Before
+    public void setUp() {
+        WorkerConfiguration config = new WorkerConfiguration(new String[]{"managerQueue", "workersQueue", "tileThresholdMp=1"}, QUIET);
+        preprocessor = new ImagePreprocessor(config, QUIET);
+    }
+
+    private static DownloadedImage png(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return DownloadedImage.inMemory(out.toByteArray(), "digest");
+    }
+
+    private static boolean inSquare(int x, int y) {
+        for (int left : SQUARE_LEFTS) {
+            if (x >= left && x < left + SQUARE && y >= SQUARE_TOP && y < SQUARE_TOP + SQUARE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //background lit from 100 on the left to 250 on the right, with squares at 30% of their background. the square on
+    //the right (75) is brighter than the background on the left, so no global threshold separates them
+    private static BufferedImage unevenlyLitSquares() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = image.getRaster();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int background = 100 + 150 * x / (WIDTH - 1);
+                raster.setSample(x, y, 0, inSquare(x, y) ? background * 3 / 10 : background);
+            }
+        }
+        return image;
+    }
+
+    @Test
+    public void thresholdKeepsOnlyTheSquaresUnderUnevenLighting() throws IOException {
+        BufferedImage binary = preprocessor.process(png(unevenlyLitSquares()), PreprocessOptions.parse("threshold"));
+        assertEquals(WIDTH, binary.getWidth());
+        assertEquals(HEIGHT, binary.getHeight());
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals("pixel " + x + "," + y, inSquare(x, y) ? 0 : 255, binary.getRaster().getSample(x, y, 0));
+            }
+        }
+    }
+
+    @Test
+    public void downscalesImageAboveTheTilingThreshold() throws IOException {
+        BufferedImage large = new BufferedImage(1200, 1000, BufferedImage.TYPE_BYTE_GRAY);
+        BufferedImage decoded = preprocessor.process(png(large), PreprocessOptions.parse("grayscale"));
+        assertEquals(600, decoded.getWidth());
+        assertEquals(500, decoded.getHeight());
+    }
+}
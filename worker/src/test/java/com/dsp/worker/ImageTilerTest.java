@@ -0,0 +1,128 @@
+package com.dsp.worker;
+
+import com.dsp.utils.GeneralUtils;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class ImageTilerTest {
+
+    private static final int TILE_SIZE = 2048;
+    private static final int OVERLAP = 100;
+    private static final OcrProfile ENGLISH = new OcrProfile("eng", -1, -1, null);
+    private static final GeneralUtils QUIET = new GeneralUtils() {
+        @Override
+        public synchronized void logPrint(String msg) {
+        }
+    };
+
+    //engines without tesseract, which record how many of them recognize at the same time
+    private static class CountingPool extends OcrEnginePool {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        CountingPool() {
+            super(8, "unused");
+        }
+
+        @Override
+        OcrEngine createEngine(String datapath, OcrProfile profile) {
+            return new OcrEngine(profile) {
+                @Override
+                public List<TextLine> recognizeLines(BufferedImage image) {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                    return Collections.emptyList();
+                }
+            };
+        }
+    }
+
+    private static OcrEngine.TextLine line(String text, int left, int top, int right, int bottom) {
+        return new OcrEngine.TextLine(text, left, top, right, bottom);
+    }
+
+    @Test
+    public void joinsLineCutByTileBorder() {
+        String text = ImageTiler.stitch(Arrays.asList(
+                line("brown fox jumps\n", 2050, 102, 2400, 132),
+                line("The quick brown\n", 1800, 100, 2148, 130)), TILE_SIZE, OVERLAP);
+        assertEquals("The quick brown fox jumps\n", text);
+    }
+
+    @Test
+    public void splitsOverlapInTheMiddleWithoutExactRepeat() {
+        String text = ImageTiler.stitch(Arrays.asList(
+                line("aaaa bbbb cccc\n", 1900, 100, 2148, 130),
+                line("ccX dddd eeee\n", 1990, 100, 2400, 130)), TILE_SIZE, OVERLAP);
+        assertEquals("aaaa bbbb dddd eeee\n", text);
+    }
+
+    @Test
+    public void keepsLineSeenWholeByBothTilesOnce() {
+        String text = ImageTiler.stitch(Arrays.asList(
+                line("short\n", 2000, 100, 2100, 130),
+                line("short\n", 2010, 101, 2095, 129)), TILE_SIZE, OVERLAP);
+        assertEquals("short\n", text);
+    }
+
+    @Test
+    public void ordersLinesTopToBottomAcrossTiles() {
+        String text = ImageTiler.stitch(Arrays.asList(
+                line("first\n", 100, 100, 600, 130),
+                line("third\n", 100, 500, 600, 530),
+                line("second\n", 2500, 300, 3000, 330)), TILE_SIZE, OVERLAP);
+        assertEquals("first\nsecond\nthird\n", text);
+    }
+
+    @Test
+    public void ordersLinesOfARowLeftToRight() {
+        String text = ImageTiler.stitch(Arrays.asList(
+                line("right column\n", 3000, 98, 3500, 128),
+                line("left column\n", 100, 104, 600, 134)), TILE_SIZE, OVERLAP);
+        assertEquals("left column\nright column\n", text);
+    }
+
+    @Test
+    public void doesNotJoinLinesAwayFromTileBorders() {
+        String text = ImageTiler.stitch(Arrays.asList(
+                line("one\n", 100, 100, 300, 130),
+                line("two\n", 310, 100, 500, 130)), TILE_SIZE, OVERLAP);
+        assertEquals("one\ntwo\n", text);
+    }
+
+    @Test
+    public void tilesRunWithinTheSlotsLimit() throws IOException, InterruptedException {
+        WorkerConfiguration config = new WorkerConfiguration(new String[]{"managerQueue", "workersQueue",
+                "tileSize=256", "tileOverlap=0", "tileThreads=4"}, QUIET);
+        CountingPool pool = new CountingPool();
+        SlotLimiter slotLimiter = new SlotLimiter(2);
+        ImageTiler tiler = new ImageTiler(pool, slotLimiter, config, QUIET);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(1024, 512, BufferedImage.TYPE_BYTE_GRAY), "png", png);
+        slotLimiter.acquire(); // the caller's slot, as in Worker
+        try {
+            tiler.recognize(DownloadedImage.inMemory(png.toByteArray(), "digest"), ENGLISH, 0);
+            assertEquals(1, slotLimiter.getInUse());
+        } finally {
+            slotLimiter.release();
+            tiler.close();
+        }
+        assertEquals(2, pool.maxRunning.get());
+    }
+}
@@ -0,0 +1,296 @@
+package com.dsp.worker;
+
+import com.dsp.utils.GeneralUtils;
+import com.sun.net.httpserver.HttpServer;
+import net.sourceforge.tess4j.Tesseract;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+//measures the per image latency of the worker's OCR path on the urls of a job input file (inputs/short_input.txt by
+//default). the urls are answered by a local http stub, so the network is not measured: an url gets the image of the
+//same file name in imagesDir if there is one, otherwise a generated scanned page (a letter page of text at 300dpi, with
+//uneven lighting and noise), so the benchmark also runs offline.
+//variants:
+//  before         - ImageIO download, re-encode to a temp png, Tesseract.doOCR (a native api initialised per call)
+//  persistent     - the same temp png, OCR'd by one initialised OcrEngine
+//  in memory      - ImageFetcher download, the bytes are decoded by leptonica in memory (the worker's path)
+//  preprocessing  - ImageFetcher download, ImagePreprocessor (preprocessSteps), then the persistent engine
+//the time to get the image ready for OCR and the OCR time are reported apart. when the tesseract native library can't
+//be loaded only the first is measured.
+//it is not a unit test, run it from worker/ after mvn test-compile:
+//java -cp target/classes:target/test-classes:<dependencies> com.dsp.worker.OcrBenchmark [urlsFile] [imagesDir] [tessdataPath] [rounds] [preprocessSteps]
+public class OcrBenchmark {
+
+    private static final int PAGE_WIDTH = 2550;
+    private static final int PAGE_HEIGHT = 3300;
+    private static final String[] WORDS = ("the quick brown fox jumps over a lazy dog while optical character recognition "
+            + "reads scanned pages of invoices letters and forms in many fonts 0123456789").split(" ");
+
+    private static GeneralUtils generalUtils;
+
+    //the time to prepare an image and to OCR it, ocrMs is -1 when OCR isn't measured
+    private static class Sample {
+        final long prepareMs;
+        final long ocrMs;
+
+        Sample(long prepareMs, long ocrMs) {
+            this.prepareMs = prepareMs;
+            this.ocrMs = ocrMs;
+        }
+    }
+
+    interface Variant {
+        Sample run(String url) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        generalUtils = new GeneralUtils();
+        File urlsFile = new File(args.length > 0 ? args[0] : "../inputs/short_input.txt");
+        File imagesDir = new File(args.length > 1 ? args[1] : "../inputs/images");
+        String datapath = args.length > 2 ? args[2] : "/usr/share/tesseract-ocr/4.00/tessdata";
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        PreprocessOptions preprocessOptions = PreprocessOptions.parse(args.length > 4 ? args[4] : "dpi=300,grayscale,threshold");
+
+        List<String> urls = new ArrayList<>();
+        for (String line : Files.readAllLines(urlsFile.toPath(), StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                urls.add(line.trim());
+            }
+        }
+        HttpServer server = startStub(urls, imagesDir);
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        List<String> stubUrls = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            stubUrls.add(baseUrl + "/" + i + "/" + fileName(urls.get(i)));
+        }
+
+        ImageFetcher fetcher = new ImageFetcher(new WorkerConfiguration(new String[0], generalUtils), generalUtils);
+        ImagePreprocessor preprocessor = new ImagePreprocessor(new WorkerConfiguration(new String[0], generalUtils), generalUtils);
+        OcrEngine engine = loadEngine(datapath);
+        Tesseract tesseract = engine == null ? null : new Tesseract();
+        if (tesseract != null) {
+            tesseract.setDatapath(datapath);
+        }
+        try {
+            //before: a new native api is initialised by Tesseract.doOCR for every image, read from a temp png
+            report("before: temp png + Tesseract.doOCR per call init", run(stubUrls, rounds, url -> {
+                long start = System.nanoTime();
+                File png = downloadToPng(url);
+                long prepared = System.nanoTime();
+                try {
+                    if (engine == null) {
+                        return new Sample(millis(prepared - start), -1);
+                    }
+                    tesseract.doOCR(png);
+                    return new Sample(millis(prepared - start), millis(System.nanoTime() - prepared));
+                } finally {
+                    delete(png);
+                }
+            }));
+
+            report("persistent engine: temp png", run(stubUrls, rounds, url -> {
+                long start = System.nanoTime();
+                File png = downloadToPng(url);
+                long prepared = System.nanoTime();
+                try {
+                    if (engine == null) {
+                        return new Sample(millis(prepared - start), -1);
+                    }
+                    engine.recognize(png);
+                    return new Sample(millis(prepared - start), millis(System.nanoTime() - prepared));
+                } finally {
+                    delete(png);
+                }
+            }));
+
+            report("persistent engine: in memory", run(stubUrls, rounds, url -> {
+                long start = System.nanoTime();
+                DownloadedImage image = download(fetcher, url);
+                long prepared = System.nanoTime();
+                if (engine == null) {
+                    return new Sample(millis(prepared - start), -1);
+                }
+                engine.recognize(image.getBytes());
+                return new Sample(millis(prepared - start), millis(System.nanoTime() - prepared));
+            }));
+
+            report("persistent engine: preprocessing (" + preprocessOptions + ")", run(stubUrls, rounds, url -> {
+                long start = System.nanoTime();
+                BufferedImage preprocessed = preprocessor.process(download(fetcher, url), preprocessOptions);
+                long prepared = System.nanoTime();
+                if (engine == null) {
+                    return new Sample(millis(prepared - start), -1);
+                }
+                engine.recognize(preprocessed);
+                return new Sample(millis(prepared - start), millis(System.nanoTime() - prepared));
+            }));
+        } finally {
+            if (engine != null) {
+                engine.close();
+            }
+            fetcher.close();
+            server.stop(0);
+        }
+    }
+
+    //the persistent engine, null when the tesseract native library or traineddata can't be loaded
+    private static OcrEngine loadEngine(String datapath) {
+        try {
+            return new OcrEngine(datapath);
+        } catch (RuntimeException | LinkageError e) {
+            generalUtils.logPrint("OCR is not measured, tesseract can't be loaded: " + e);
+            return null;
+        }
+    }
+
+    private static List<Sample> run(List<String> urls, int rounds, Variant variant) throws Exception {
+        List<Sample> samples = new ArrayList<>();
+        for (int round = 0; round < rounds; round++) {
+            for (String url : urls) {
+                samples.add(variant.run(url));
+            }
+        }
+        return samples;
+    }
+
+    //the download of the worker before the in-memory path: decode, then write a png for tesseract to read
+    private static File downloadToPng(String url) throws IOException {
+        BufferedImage downloaded = ImageIO.read(new URL(url));
+        File png = new File(GeneralUtils.getUniqueID() + "__Image.png");
+        ImageIO.write(downloaded, "png", png);
+        return png;
+    }
+
+    private static DownloadedImage download(ImageFetcher fetcher, String url) throws IOException {
+        DownloadedImage image = fetcher.download(url);
+        if (image == null) {
+            throw new IOException("Download failed: " + url);
+        }
+        return image;
+    }
+
+    private static void delete(File file) {
+        if (!file.delete()) {
+            generalUtils.logPrint("Image can't be deleted");
+        }
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1_000_000;
+    }
+
+    private static void report(String name, List<Sample> samples) {
+        List<Long> prepare = new ArrayList<>();
+        List<Long> ocr = new ArrayList<>();
+        for (Sample sample : samples) {
+            prepare.add(sample.prepareMs);
+            if (sample.ocrMs >= 0) {
+                ocr.add(sample.prepareMs + sample.ocrMs);
+            }
+        }
+        generalUtils.logPrint(String.format(Locale.ROOT, "%s: %d images, prepare %s, total %s", name, samples.size(),
+                summary(prepare), ocr.isEmpty() ? "not measured" : summary(ocr)));
+    }
+
+    private static String summary(List<Long> latencies) {
+        Collections.sort(latencies);
+        long sum = 0;
+        for (long latency : latencies) {
+            sum += latency;
+        }
+        return String.format(Locale.ROOT, "avg %dms p50 %dms p90 %dms max %dms", sum / latencies.size(),
+                percentile(latencies, 0.5), percentile(latencies, 0.9), latencies.get(latencies.size() - 1));
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        return sorted.get(Math.min((int) (sorted.size() * p), sorted.size() - 1));
+    }
+
+    private static String fileName(String url) {
+        String path = URI.create(url).getPath();
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        return name.isEmpty() ? "image.png" : name;
+    }
+
+    //serves /<index>/<file name> for every url of the input
+    private static HttpServer startStub(List<String> urls, File imagesDir) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        int generated = 0;
+        for (int i = 0; i < urls.size(); i++) {
+            String name = fileName(urls.get(i));
+            File local = new File(imagesDir, name);
+            byte[] content;
+            if (local.isFile()) {
+                content = Files.readAllBytes(local.toPath());
+            } else {
+                content = generatePage(i, name);
+                generated++;
+            }
+            server.createContext("/" + i + "/" + name, exchange -> {
+                exchange.sendResponseHeaders(200, content.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(content);
+                }
+            });
+        }
+        server.start();
+        generalUtils.logPrint("Serving " + urls.size() + " urls, " + generated + " of them with generated pages");
+        return server;
+    }
+
+    //a letter page at 300dpi: lines of text, lighter towards one corner, with sensor noise. encoded as jpeg for a jpeg
+    //url and as png otherwise
+    private static byte[] generatePage(int seed, String name) throws IOException {
+        Random random = new Random(seed);
+        BufferedImage page = new BufferedImage(PAGE_WIDTH, PAGE_HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = page.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, PAGE_WIDTH, PAGE_HEIGHT);
+        graphics.setColor(Color.BLACK);
+        graphics.setFont(new Font(random.nextBoolean() ? Font.SERIF : Font.SANS_SERIF, Font.PLAIN, 42));
+        for (int y = 300; y < PAGE_HEIGHT - 300; y += 70) {
+            StringBuilder line = new StringBuilder();
+            while (line.length() < 70) {
+                line.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            graphics.drawString(line.toString().trim(), 250, y);
+        }
+        graphics.dispose();
+        WritableRaster raster = page.getRaster();
+        int[] row = new int[PAGE_WIDTH];
+        for (int y = 0; y < PAGE_HEIGHT; y++) {
+            raster.getSamples(0, y, PAGE_WIDTH, 1, 0, row);
+            for (int x = 0; x < PAGE_WIDTH; x++) {
+                double light = 0.7 + 0.3 * (x + y) / (double) (PAGE_WIDTH + PAGE_HEIGHT);
+                row[x] = Math.max(0, Math.min(255, (int) (row[x] * light + random.nextGaussian() * 8)));
+            }
+            raster.setSamples(0, y, PAGE_WIDTH, 1, 0, row);
+        }
+        String lowerName = name.toLowerCase(Locale.ROOT);
+        String format = lowerName.endsWith(".jpg") || lowerName.endsWith(".jpeg") ? "jpg" : "png";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(page, format, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,128 @@
+package com.dsp.worker;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class OcrEnginePoolTest {
+
+    private static final OcrProfile ENGLISH = new OcrProfile("eng", -1, -1, null);
+    private static final OcrProfile GERMAN = new OcrProfile("deu", -1, -1, null);
+    private static final OcrProfile FRENCH = new OcrProfile("fra", -1, -1, null);
+
+    //an engine without tesseract, which records when it is closed
+    private static class FakeEngine extends OcrEngine {
+        boolean cancelled;
+        boolean closed;
+
+        FakeEngine(OcrProfile profile) {
+            super(profile);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static class FakePool extends OcrEnginePool {
+        FakePool(int capacity) {
+            super(capacity, "unused");
+        }
+
+        @Override
+        OcrEngine createEngine(String datapath, OcrProfile profile) {
+            return new FakeEngine(profile);
+        }
+    }
+
+    @Test
+    public void reusesIdleEngineOfTheProfile() throws InterruptedException {
+        OcrEnginePool pool = new FakePool(2);
+        OcrEngine engine = pool.acquire(ENGLISH);
+        pool.release(engine);
+        assertSame(engine, pool.acquire(ENGLISH));
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void closesIdleEngineOfLeastRecentlyUsedProfileWhenFull() throws InterruptedException {
+        OcrEnginePool pool = new FakePool(2);
+        FakeEngine english = (FakeEngine) pool.acquire(ENGLISH);
+        FakeEngine german = (FakeEngine) pool.acquire(GERMAN);
+        pool.release(english);
+        pool.release(german);
+        pool.release(pool.acquire(ENGLISH)); // english is used last
+
+        FakeEngine french = (FakeEngine) pool.acquire(FRENCH);
+        assertTrue(german.closed);
+        assertFalse(english.closed);
+        assertEquals(FRENCH, french.getProfile());
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void replacesCancelledEngine() throws InterruptedException {
+        OcrEnginePool pool = new FakePool(1);
+        FakeEngine engine = (FakeEngine) pool.acquire(ENGLISH);
+        engine.cancelled = true;
+        pool.release(engine);
+        assertTrue(engine.closed);
+        assertEquals(0, pool.size());
+        assertNotSame(engine, pool.acquire(ENGLISH));
+    }
+
+    @Test
+    public void waitsForReleasedEngineWhenAllAreInUse() throws InterruptedException {
+        OcrEnginePool pool = new FakePool(1);
+        OcrEngine engine = pool.acquire(ENGLISH);
+        AtomicReference<OcrEngine> acquired = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                acquired.set(pool.acquire(ENGLISH));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        waiter.join(200);
+        assertNull(acquired.get());
+        pool.release(engine);
+        waiter.join(5_000);
+        assertSame(engine, acquired.get());
+    }
+
+    @Test
+    public void retainAtMostClosesIdleEnginesOnly() throws InterruptedException {
+        OcrEnginePool pool = new FakePool(3);
+        FakeEngine english = (FakeEngine) pool.acquire(ENGLISH);
+        FakeEngine german = (FakeEngine) pool.acquire(GERMAN);
+        FakeEngine french = (FakeEngine) pool.acquire(FRENCH);
+        pool.release(english);
+        pool.release(german);
+        pool.retainAtMost(0);
+        assertTrue(english.closed);
+        assertTrue(german.closed);
+        assertFalse(french.closed);
+        assertEquals(1, pool.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedPoolRejectsAcquire() throws InterruptedException {
+        OcrEnginePool pool = new FakePool(1);
+        pool.close();
+        pool.acquire(ENGLISH);
+    }
+}
@@ -0,0 +1,109 @@
+package com.dsp.worker;
+
+import com.dsp.utils.GeneralUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PageRecognizerTest {
+
+    private static final OcrProfile ENGLISH = new OcrProfile("eng", -1, -1, null);
+    private static final int PAGES = 6;
+    private static final GeneralUtils QUIET = new GeneralUtils() {
+        @Override
+        public synchronized void logPrint(String msg) {
+        }
+    };
+
+    //engines without tesseract, which take a while like a native recognition (not interruptible) and record how many
+    //of them recognize at the same time. with failFirst the first recognition fails at once
+    private static class CountingPool extends OcrEnginePool {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicBoolean failFirst = new AtomicBoolean();
+
+        CountingPool() {
+            super(PAGES, "unused");
+        }
+
+        @Override
+        OcrEngine createEngine(String datapath, OcrProfile profile) {
+            return new OcrEngine(profile) {
+                @Override
+                public String recognize(BufferedImage image) {
+                    if (failFirst.compareAndSet(true, false)) {
+                        throw new IllegalStateException("page failed");
+                    }
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    long end = System.currentTimeMillis() + 100;
+                    while (System.currentTimeMillis() < end) {
+                        Thread.yield();
+                    }
+                    running.decrementAndGet();
+                    return "page";
+                }
+            };
+        }
+    }
+
+    private CountingPool pool;
+    private SlotLimiter slotLimiter;
+    private PageRecognizer recognizer;
+    private PagedDocument document;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        WorkerConfiguration config = new WorkerConfiguration(new String[]{"managerQueue", "workersQueue", "pageThreads=" + PAGES}, QUIET);
+        pool = new CountingPool();
+        slotLimiter = new SlotLimiter(2);
+        recognizer = new PageRecognizer(pool, slotLimiter, config, QUIET);
+        try (PDDocument pdf = new PDDocument()) {
+            for (int i = 0; i < PAGES; i++) {
+                pdf.addPage(new PDPage(new PDRectangle(72, 72)));
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            pdf.save(out);
+            document = PagedDocument.open(DownloadedImage.inMemory(out.toByteArray(), "digest"), 72);
+        }
+        slotLimiter.acquire(); // the caller's slot, as in Worker
+    }
+
+    @After
+    public void tearDown() {
+        slotLimiter.release();
+        document.close();
+        recognizer.close();
+    }
+
+    @Test
+    public void pagesRunWithinTheSlotsLimit() throws IOException, InterruptedException {
+        String text = recognizer.recognize(document, 0, PAGES, ENGLISH, 0);
+        assertEquals(PAGES, text.split("\n").length);
+        assertEquals(2, pool.maxRunning.get());
+        assertEquals(1, slotLimiter.getInUse());
+    }
+
+    @Test
+    public void returnsOnlyWhenNoPageIsRunning() throws IOException, InterruptedException {
+        pool.failFirst.set(true);
+        try {
+            recognizer.recognize(document, 0, PAGES, ENGLISH, 0);
+            fail("the failed page should fail the document");
+        } catch (IllegalStateException e) {
+            assertEquals(0, pool.running.get());
+        }
+        assertEquals(1, slotLimiter.getInUse());
+    }
+}
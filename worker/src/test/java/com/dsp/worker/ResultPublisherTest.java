@@ -0,0 +1,128 @@
+package com.dsp.worker;
+
+import com.dsp.aws.SQSClient;
+import com.dsp.utils.GeneralUtils;
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResultPublisherTest {
+
+    private static final GeneralUtils QUIET = new GeneralUtils() {
+        @Override
+        public synchronized void logPrint(String msg) {
+        }
+    };
+
+    //records the batches and the single messages, the entries at failIndexes of every batch fail
+    private static class FakeSqs extends SQSClient {
+        final List<List<String>> batches = new ArrayList<>();
+        final List<String> singles = new ArrayList<>();
+        List<Integer> failIndexes = Collections.emptyList();
+
+        FakeSqs() {
+            super(null);
+        }
+
+        @Override
+        public synchronized List<Integer> sendMessageBatch(String queueUrl, List<String> messageBodies,
+                                                           List<Map<String, MessageAttributeValue>> attributes) {
+            batches.add(new ArrayList<>(messageBodies));
+            return new ArrayList<>(failIndexes);
+        }
+
+        @Override
+        public synchronized boolean sendMessage(String queueUrl, String messageBody, Map<String, MessageAttributeValue> attributes, int delaySeconds) {
+            singles.add(messageBody);
+            return true;
+        }
+    }
+
+    private static Map<String, MessageAttributeValue> attributes(String url) {
+        Map<String, MessageAttributeValue> attributes = new HashMap<>();
+        attributes.put("Url", MessageAttributeValue.builder().dataType("String").stringValue(url).build());
+        return attributes;
+    }
+
+    private static void publish(ResultPublisher publisher, int count) {
+        for (int i = 0; i < count; i++) {
+            publisher.publish("result" + i, attributes("http://host/" + i));
+        }
+    }
+
+    @Test
+    public void sendsFullBatchAtOnce() {
+        FakeSqs sqs = new FakeSqs();
+        ResultPublisher publisher = new ResultPublisher(sqs, "queue", 60_000, QUIET);
+        publish(publisher, 10);
+        assertEquals(1, sqs.batches.size());
+        assertEquals(10, sqs.batches.get(0).size());
+    }
+
+    @Test
+    public void holdsPartialBatchUntilLingerPassed() throws InterruptedException {
+        FakeSqs sqs = new FakeSqs();
+        ResultPublisher publisher = new ResultPublisher(sqs, "queue", 100, QUIET);
+        publish(publisher, 3);
+        publisher.run();
+        assertTrue(sqs.batches.isEmpty());
+        Thread.sleep(150);
+        publisher.run();
+        assertEquals(Collections.singletonList(Arrays.asList("result0", "result1", "result2")), sqs.batches);
+    }
+
+    @Test
+    public void flushSendsBufferedMessages() {
+        FakeSqs sqs = new FakeSqs();
+        ResultPublisher publisher = new ResultPublisher(sqs, "queue", 60_000, QUIET);
+        publish(publisher, 12);
+        publisher.flush();
+        assertEquals(2, sqs.batches.size());
+        assertEquals(2, sqs.batches.get(1).size());
+        publisher.flush();
+        assertEquals(2, sqs.batches.size());
+    }
+
+    @Test
+    public void sendsBatchBeforeItExceedsPayloadLimit() {
+        FakeSqs sqs = new FakeSqs();
+        ResultPublisher publisher = new ResultPublisher(sqs, "queue", 60_000, QUIET);
+        char[] large = new char[100 * 1024];
+        Arrays.fill(large, 'a');
+        for (int i = 0; i < 3; i++) {
+            publisher.publish(new String(large), attributes("http://host/" + i));
+        }
+        assertEquals(1, sqs.batches.size());
+        assertEquals(2, sqs.batches.get(0).size());
+    }
+
+    @Test
+    public void sendsSingleMessageWithoutBatch() {
+        FakeSqs sqs = new FakeSqs();
+        ResultPublisher publisher = new ResultPublisher(sqs, "queue", 60_000, QUIET);
+        publish(publisher, 1);
+        publisher.flush();
+        assertTrue(sqs.batches.isEmpty());
+        assertEquals(Collections.singletonList("result0"), sqs.singles);
+    }
+
+    @Test
+    public void retriesFailedBatchEntriesOneByOne() {
+        FakeSqs sqs = new FakeSqs();
+        sqs.failIndexes = Arrays.asList(1, 3);
+        ResultPublisher publisher = new ResultPublisher(sqs, "queue", 60_000, QUIET);
+        publish(publisher, 5);
+        publisher.flush();
+        assertEquals(1, sqs.batches.size());
+        assertEquals(Arrays.asList("result1", "result3"), sqs.singles);
+    }
+}
@@ -0,0 +1,65 @@
+package com.dsp.worker;
+
+import com.dsp.utils.GeneralUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SlotControllerTest {
+
+    private static final GeneralUtils QUIET = new GeneralUtils() {
+        @Override
+        public synchronized void logPrint(String msg) {
+        }
+    };
+
+    private SlotController controller;
+
+    @Before
+    public void setUp() {
+        WorkerConfiguration config = new WorkerConfiguration(new String[]{"managerQueue", "workersQueue",
+                "minSlots=1", "maxSlots=4", "cpuHigh=0.9", "cpuLow=0.6"}, QUIET);
+        controller = new SlotController(new SlotLimiter(1), new OcrEnginePool(4, "unused"), config, QUIET);
+    }
+
+    @Test
+    public void shrinksWhenCpuIsSaturated() {
+        assertEquals(2, controller.nextLimit(3, 3, 0.95, false));
+    }
+
+    @Test
+    public void shrinksWhenMemoryIsLow() {
+        assertEquals(2, controller.nextLimit(3, 3, 0.1, true));
+    }
+
+    @Test
+    public void neverShrinksBelowMinSlots() {
+        assertEquals(1, controller.nextLimit(1, 1, 0.99, true));
+    }
+
+    @Test
+    public void growsWhenAllSlotsAreBusyAndCpuIsSpare() {
+        assertEquals(3, controller.nextLimit(2, 2, 0.3, false));
+    }
+
+    @Test
+    public void doesNotGrowWithIdleSlots() {
+        assertEquals(2, controller.nextLimit(2, 1, 0.3, false));
+    }
+
+    @Test
+    public void neverGrowsAboveMaxSlots() {
+        assertEquals(4, controller.nextLimit(4, 4, 0.1, false));
+    }
+
+    @Test
+    public void keepsSlotsBetweenWatermarks() {
+        assertEquals(2, controller.nextLimit(2, 2, 0.7, false));
+    }
+
+    @Test
+    public void doesNotGrowWhenCpuLoadIsUnknown() {
+        assertEquals(2, controller.nextLimit(2, 2, -1, false));
+    }
+}